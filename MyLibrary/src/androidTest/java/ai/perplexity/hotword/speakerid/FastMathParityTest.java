@@ -0,0 +1,66 @@
+package ai.perplexity.hotword.speakerid;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Random;
+
+import ai.onnxruntime.OrtEnvironment;
+import ai.onnxruntime.OrtSession;
+
+/** cfg.fbankFastMath: the speakernet embedding barely moves when the fast-math front-end is on. */
+@RunWith(AndroidJUnit4.class)
+public class FastMathParityTest {
+    private static final float MIN_COSINE = 0.9999f;
+
+    @Test
+    public void fastMathEmbeddingMatchesExact() throws Exception {
+        Context ctx = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        SpeakerIdAssets.Paths p = SpeakerIdAssets.resolveModels(ctx);
+        assertNotNull("speakernet model", p.speakerOnnx);
+
+        OrtEnvironment env = OrtEnvironment.getEnvironment();
+        SpeakerEmbedderOrt exact = null, fast = null;
+        try (OrtSession.SessionOptions opts = new OrtSession.SessionOptions()) {
+            exact = new SpeakerEmbedderOrt(env, p.speakerOnnx, opts, 16000, false);
+            fast = new SpeakerEmbedderOrt(env, p.speakerOnnx, opts, 16000, true);
+            for (long seed = 1; seed <= 3; seed++) {
+                short[] pcm = fixture(2, seed);
+                float[] a = exact.embedOnce(pcm, 0, pcm.length);
+                float[] b = fast.embedOnce(pcm, 0, pcm.length);
+                assertEquals(a.length, b.length);
+                assertTrue(a.length > 0);
+                float c = SpeakerEmbedderOrt.cosine(a, b);
+                assertTrue("seed " + seed + ": cos=" + c, c >= MIN_COSINE);
+            }
+        } finally {
+            if (exact != null) exact.close();
+            if (fast != null) fast.close();
+        }
+    }
+
+    /** Voiced-like utterance: gliding pitch + formant tone, syllable-rate envelope, noise. */
+    private static short[] fixture(int seconds, long seed) {
+        Random r = new Random(seed);
+        double f0 = 110 + 40 * r.nextDouble();
+        double f1 = 700 + 800 * r.nextDouble();
+        short[] pcm = new short[16000 * seconds];
+        for (int i = 0; i < pcm.length; i++) {
+            double t = i / 16000.0;
+            double env = 0.5 + 0.5 * Math.sin(2 * Math.PI * 4 * t);
+            double v = env * (6000 * Math.sin(2 * Math.PI * (f0 + 30 * Math.sin(2 * Math.PI * 2 * t)) * t)
+                    + 2500 * Math.sin(2 * Math.PI * f1 * t)) + 300 * r.nextGaussian();
+            pcm[i] = (short) Math.max(-32768, Math.min(32767, Math.round(v)));
+        }
+        return pcm;
+    }
+}
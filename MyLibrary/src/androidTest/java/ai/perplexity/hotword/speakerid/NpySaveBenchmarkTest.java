@@ -0,0 +1,86 @@
+package ai.perplexity.hotword.speakerid;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Save throughput of NpyUtil per durability mode, atomic and plain, next to the old
+ * element-by-element stream writer, on the device's app storage. Rates go to logcat ([NPYBENCH]).
+ */
+@RunWith(AndroidJUnit4.class)
+public class NpySaveBenchmarkTest {
+    private static final String TAG = "NpySaveBenchmarkTest";
+
+    @Test
+    public void saveThroughput() throws Exception {
+        Context ctx = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        for (int[] shape : new int[][]{{1, 192}, {16, 192}, {64, 192}}) {
+            Log.i(TAG, benchmarkSave(ctx.getCacheDir(), shape[0], shape[1], 50));
+        }
+    }
+
+    private static String benchmarkSave(File dir, int rows, int cols, int iters) throws Exception {
+        float[][] m = new float[rows][cols];
+        Random rnd = new Random(1);
+        for (float[] r : m) for (int c = 0; c < cols; ++c) r[c] = rnd.nextFloat() - 0.5f;
+        File f = new File(dir, "npy_bench.npy");
+        ByteBuffer enc = NpyUtil.encode(m);
+        byte[] header = Arrays.copyOf(enc.array(), enc.limit() - rows * cols * 4);
+        double mb = (double) rows * cols * 4 * iters / (1024.0 * 1024.0);
+        StringBuilder sb = new StringBuilder(String.format(Locale.US,
+                "[NPYBENCH] %dx%d x%d (%.2f MB)", rows, cols, iters, mb));
+
+        long t0 = System.nanoTime();
+        for (int i = 0; i < iters; ++i) {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f)))) {
+                out.write(header);
+                for (float[] r : m) for (float x : r) out.writeInt(Integer.reverseBytes(Float.floatToRawIntBits(x)));
+            }
+        }
+        appendRate(sb, "stream/elementwise", mb, iters, System.nanoTime() - t0);
+        assertRoundTrip(f, m);
+
+        for (NpyUtil.Durability d : NpyUtil.Durability.values()) {
+            t0 = System.nanoTime();
+            for (int i = 0; i < iters; ++i) NpyUtil.saveMatrixFloat32(f, m, d);
+            appendRate(sb, "plain/" + d, mb, iters, System.nanoTime() - t0);
+            assertRoundTrip(f, m);
+            t0 = System.nanoTime();
+            for (int i = 0; i < iters; ++i) NpyUtil.saveMatrixFloat32Atomic(f, m, d);
+            appendRate(sb, "atomic/" + d, mb, iters, System.nanoTime() - t0);
+            assertRoundTrip(f, m);
+        }
+        //noinspection ResultOfMethodCallIgnored
+        f.delete();
+        return sb.toString();
+    }
+
+    private static void assertRoundTrip(File f, float[][] m) throws Exception {
+        float[][] back = NpyUtil.loadMatrixFloat32(f);
+        assertEquals(m.length, back.length);
+        for (int r = 0; r < m.length; ++r) assertArrayEquals(m[r], back[r], 0f);
+    }
+
+    private static void appendRate(StringBuilder sb, String label, double mb, int iters, long ns) {
+        double ms = ns / 1e6;
+        sb.append(String.format(Locale.US, " %s=%.1fMB/s(%.2fms/op)", label, mb / (ms / 1000.0), ms / iters));
+    }
+}
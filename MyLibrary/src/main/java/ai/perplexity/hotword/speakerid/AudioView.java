@@ -0,0 +1,58 @@
+package ai.perplexity.hotword.speakerid;
+
+import java.util.Arrays;
+
+/**
+ * Read-only window [off, off+len) of a PCM16 array. Segments and slices are views of the samples
+ * they came from; nothing is copied until padding is really needed ({@link #loopOrPad}) or a caller
+ * needs a standalone array ({@link #array()}). The backing array is shared: never write through it.
+ */
+public final class AudioView {
+    static final AudioView EMPTY = new AudioView(new short[0], 0, 0);
+
+    final short[] a;
+    final int off;
+    final int len;
+
+    AudioView(short[] a, int off, int len) {
+        if (a == null || off < 0 || len < 0 || off + len > a.length) {
+            throw new IllegalArgumentException("bad view: " + off + "+" + len + " of " + (a == null ? "null" : a.length));
+        }
+        this.a = a;
+        this.off = off;
+        this.len = len;
+    }
+
+    static AudioView of(short[] a) {
+        return (a == null || a.length == 0) ? EMPTY : new AudioView(a, 0, a.length);
+    }
+
+    public int length() { return len; }
+
+    /** Samples [from, from+n) of this view, relative to its start. */
+    AudioView sub(int from, int n) {
+        if (from < 0 || n < 0 || from + n > len) {
+            throw new IllegalArgumentException("bad sub-view: " + from + "+" + n + " of " + len);
+        }
+        return (from == 0 && n == len) ? this : new AudioView(a, off + from, n);
+    }
+
+    /** The backing array itself when the view covers all of it, else a copy of the range. */
+    short[] array() {
+        return (off == 0 && len == a.length) ? a : Arrays.copyOfRange(a, off, off + len);
+    }
+
+    /** First want samples; a shorter view is repeated to fill (zeros if empty) into a new array. */
+    AudioView loopOrPad(int want) {
+        if (len >= want) return sub(0, want);
+        short[] y = new short[want];
+        if (len == 0) return new AudioView(y, 0, want);
+        int i = 0;
+        while (i < want) {
+            int take = Math.min(len, want - i);
+            System.arraycopy(a, off, y, i, take);
+            i += take;
+        }
+        return new AudioView(y, 0, want);
+    }
+}
@@ -0,0 +1,136 @@
+package ai.perplexity.hotword.speakerid;
+
+import android.util.Log;
+
+import java.io.Closeable;
+import java.util.Locale;
+
+/**
+ * Cascaded VAD: a pure-Java gate in front of the Silero model (usually a {@link VadAdapter}).
+ * Cheapest test first: RMS below vadGateFloorDbfs → silent; quiet frames (below vadGateQuietDbfs)
+ * with a high zero-crossing rate are checked for spectral flatness, and broadband noise → silent.
+ * Silent frames return 0 without touching ONNX.
+ *
+ * Silero state: after every frame the gate passed, the next vadGateHangover frames go to the model
+ * regardless of the gate (speech offsets decay naturally). When a skipped run starts, the recurrent
+ * state is reset once, so the model resumes from the same fresh state it has at stream start.
+ */
+public final class CascadedVad implements Vad, Closeable {
+    private static final String TAG = "CascadedVad";
+    private static final long LOG_EVERY = 1000; // frames between stats logs
+
+    private final Vad inner;
+    private final float floorDbfs;
+    private final float quietDbfs;
+    private final float noiseZcr;
+    private final float noiseFlatness;
+    private final int hangover;
+
+    // spectral flatness scratch (one 25 ms frame, 512-point FFT)
+    private final Fbank fbank;
+    private final float[] re, im, pow;
+
+    private int hangLeft = 0;
+    private boolean innerFresh = true; // model state already reset for the current skipped run
+    private long frames = 0;
+    private long skipped = 0;
+
+    public CascadedVad(Vad inner, SpeakerIdConfig cfg) {
+        this.inner = inner;
+        this.floorDbfs = cfg.vadGateFloorDbfs;
+        this.quietDbfs = cfg.vadGateQuietDbfs;
+        this.noiseZcr = cfg.vadGateNoiseZcr;
+        this.noiseFlatness = cfg.vadGateNoiseFlatness;
+        this.hangover = Math.max(0, cfg.vadGateHangover);
+        this.fbank = new Fbank(new Fbank.Config(cfg.rateHz));
+        Fbank.Config fc = fbank.config();
+        this.re = new float[fc.nFft];
+        this.im = new float[fc.nFft];
+        this.pow = new float[fc.nFft / 2 + 1];
+    }
+
+    @Override public float feed(short[] block) {
+        frames++;
+        boolean silent = isSilent(block);
+        if (silent && hangLeft == 0) {
+            skipped++;
+            if (!innerFresh) {
+                resetInner();
+                innerFresh = true;
+            }
+            maybeLog();
+            return 0f;
+        }
+        float p = inner.feed(block);
+        innerFresh = false;
+        hangLeft = silent ? hangLeft - 1 : hangover;
+        maybeLog();
+        return p;
+    }
+
+    /** Cascade: energy, then zero-crossing rate, then spectral flatness (only for quiet frames). */
+    boolean isSilent(short[] b) {
+        if (b == null || b.length == 0) return true;
+        double ss = 0.0;
+        int zc = 0;
+        for (int i = 0; i < b.length; i++) {
+            ss += (double) b[i] * b[i];
+            if (i > 0 && ((b[i] ^ b[i - 1]) < 0)) zc++;
+        }
+        float rmsDb = (float) (10.0 * Math.log10(ss / b.length / (32768.0 * 32768.0) + 1e-12));
+        if (rmsDb < floorDbfs) return true;
+        if (rmsDb >= quietDbfs) return false;
+
+        float zcr = zc / (float) Math.max(1, b.length - 1);
+        if (zcr < noiseZcr) return false;
+        return flatness(b) >= noiseFlatness;
+    }
+
+    /** Spectral flatness (geometric / arithmetic mean of power, DC excluded) of the block's middle frame. */
+    private float flatness(short[] b) {
+        int frameLen = fbank.config().frameLen;
+        int start = Math.max(0, (b.length - frameLen) / 2);
+        fbank.framePowerPcm(b, 0, b.length, start, re, im, pow);
+        double logSum = 0.0, sum = 0.0;
+        int n = pow.length - 1;
+        for (int k = 1; k < pow.length; k++) {
+            double p = pow[k] + 1e-12;
+            logSum += Math.log(p);
+            sum += p;
+        }
+        return (float) (Math.exp(logSum / n) / (sum / n));
+    }
+
+    /** Clears the hangover and the wrapped model's state. */
+    public void reset() {
+        hangLeft = 0;
+        resetInner();
+        innerFresh = true;
+    }
+
+    private void resetInner() {
+        if (inner instanceof VadAdapter) ((VadAdapter) inner).reset();
+    }
+
+    /** Wrapped model VAD. */
+    public Vad inner() { return inner; }
+
+    /** Fraction of frames answered by the gate alone (0..1). */
+    public float skippedFraction() {
+        return (frames == 0) ? 0f : skipped / (float) frames;
+    }
+
+    public String stats() {
+        return String.format(Locale.US, "[VADGATE] skipped=%.1f%% (%d/%d frames)",
+                100f * skippedFraction(), skipped, frames);
+    }
+
+    private void maybeLog() {
+        if (frames % LOG_EVERY == 0) Log.i(TAG, stats());
+    }
+
+    @Override public void close() {
+        Log.i(TAG, stats());
+        if (inner instanceof Closeable) try { ((Closeable) inner).close(); } catch (Exception ignore) {}
+    }
+}
@@ -0,0 +1,234 @@
+package ai.perplexity.hotword.speakerid;
+
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only persistence for one external cluster: a .npy snapshot (+ mean) and a journal of the
+ * embeddings pushed since. A push appends one fixed-size record (D float32 LE + CRC32) and fsyncs,
+ * O(D) bytes instead of rewriting the KxD matrix. Loading replays snapshot + journal and keeps the
+ * newest capacity rows; a torn or corrupt tail record is cut off.
+ *
+ * Compaction rewrites the snapshot and deletes the journal once it holds at least
+ * max(capacity, COMPACT_MIN_RECORDS) records. At that point the journal alone determines the FIFO,
+ * so a crash between the snapshot rename and the journal delete replays to the same rows.
+ * With a profile store the snapshot is a store profile instead of the .npy pair; the .npy snapshot
+ * is still read once when the profile does not exist yet (migration).
+ * Not thread-safe (SpeakerIdApi calls it under its own lock).
+ */
+final class ExtClusterJournal implements Closeable {
+    private static final String TAG = "ExtClusterJournal";
+    private static final int MAGIC = 0x4A4B5053;    // "SPKJ" read as little-endian int
+    private static final int VERSION = 1;
+    private static final int HEADER = 16;           // magic, version, dim, reserved
+    static final int COMPACT_MIN_RECORDS = 64;
+
+    private final File snapshotFile;
+    private final File meanFile;
+    private final File logFile;
+    private final SpeakerProfileStore store;        // null: .npy snapshot (no profile store)
+    private final String profile;
+
+    private RandomAccessFile raf = null;            // open for append after the first push
+    private int dim = -1;                           // record size of the journal on disk, -1 = none
+    private int records = 0;
+    private ByteBuffer rec = null;
+    private final CRC32 crc = new CRC32();
+
+    ExtClusterJournal(File snapshotFile, File meanFile, File logFile, SpeakerProfileStore store, String profile) {
+        this.snapshotFile = snapshotFile;
+        this.meanFile = meanFile;
+        this.logFile = logFile;
+        this.store = store;
+        this.profile = profile;
+    }
+
+    /** Snapshot rows followed by journaled pushes; only the newest capacity rows are returned. */
+    List<float[]> load(int capacity) throws IOException {
+        ArrayDeque<float[]> rows = new ArrayDeque<>();
+        SpeakerProfileStore.Profile p = (store != null) ? store.get(profile) : null;
+        if (p != null) {
+            float[][] cl = p.rows();
+            if (cl != null) for (float[] r : cl) addCapped(rows, r, capacity);
+        } else if (snapshotFile.exists()) {
+            float[][] cl = NpyUtil.loadMatrixFloat32(snapshotFile);
+            if (cl != null) for (float[] r : cl) addCapped(rows, r, capacity);
+        }
+        replay(rows, capacity);
+        return new ArrayList<>(rows);
+    }
+
+    /** Mean written at the last compaction (legacy files: by every push), or null. */
+    float[] loadSnapshotMean() {
+        SpeakerProfileStore.Profile p = (store != null) ? store.get(profile) : null;
+        if (p != null) return p.mean();
+        if (!meanFile.exists()) return null;
+        try { return NpyUtil.loadVectorFloat32(meanFile); } catch (Throwable ignore) {}
+        try {
+            float[][] m = NpyUtil.loadMatrixFloat32(meanFile);
+            if (m != null && m.length == 1 && m[0] != null) return m[0];
+        } catch (Throwable ignore) {}
+        return null;
+    }
+
+    /** Append one embedding. False if it cannot go into the current journal (other dim): compact instead. */
+    boolean append(float[] e) throws IOException {
+        if (dim > 0 && e.length != dim) return false;
+        if (raf == null) open(e.length);
+        rec.clear();
+        for (float x : e) rec.putFloat(x);
+        crc.reset();
+        crc.update(rec.array(), 0, dim * 4);
+        rec.putInt((int) crc.getValue());
+        rec.flip();
+        FileChannel ch = raf.getChannel();
+        long good = ch.position();
+        try {
+            while (rec.hasRemaining()) ch.write(rec);
+            ch.force(false);
+        } catch (IOException | RuntimeException err) {
+            // cut the partial record off so the next append starts on a record boundary
+            try {
+                raf.setLength(good);
+                raf.seek(good);
+            } catch (IOException t) {
+                closeLog(); // open() trims to a record boundary
+            }
+            throw err;
+        }
+        records++;
+        return true;
+    }
+
+    boolean needsCompaction(int capacity) {
+        return records >= Math.max(capacity, COMPACT_MIN_RECORDS);
+    }
+
+    /** Write rows (+ mean) as the new snapshot and start an empty journal. */
+    void compact(float[][] rows, float[] mean) throws IOException {
+        if (store != null) {
+            store.put(profile, mean, rows.length, rows);
+        } else {
+            writeNpySnapshot(rows, mean);
+        }
+        closeLog();
+        //noinspection ResultOfMethodCallIgnored
+        logFile.delete();
+        Log.i(TAG, "compacted " + records + " journal record(s) into "
+                + (store != null ? "profile " + profile : snapshotFile.getName()) + " (" + rows.length + " rows)");
+        records = 0;
+        dim = -1;
+    }
+
+    private void writeNpySnapshot(float[][] rows, float[] mean) throws IOException {
+        try {
+            NpyUtil.saveMatrixFloat32Atomic(snapshotFile, rows);
+        } catch (NoSuchMethodError | UnsupportedOperationException ignore) {
+            NpyUtil.saveMatrixFloat32(snapshotFile, rows);
+        }
+        if (mean != null) {
+            try {
+                NpyUtil.saveVectorFloat32Atomic(meanFile, mean);
+            } catch (NoSuchMethodError | UnsupportedOperationException ignore) {
+                NpyUtil.saveVectorFloat32(meanFile, mean);
+            }
+        }
+    }
+
+    @Override public void close() {
+        closeLog();
+    }
+
+    private void replay(ArrayDeque<float[]> rows, int capacity) throws IOException {
+        closeLog();
+        records = 0;
+        dim = -1;
+        if (!logFile.exists()) return;
+        try (RandomAccessFile in = new RandomAccessFile(logFile, "rw")) {
+            FileChannel ch = in.getChannel();
+            ByteBuffer h = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+            if (!readFully(ch, h) || h.getInt(0) != MAGIC || h.getInt(4) != VERSION || h.getInt(8) <= 0) {
+                Log.w(TAG, "bad journal header, ignoring " + logFile);
+                in.setLength(0);
+                return;
+            }
+            int d = h.getInt(8);
+            ByteBuffer b = ByteBuffer.allocate(d * 4 + 4).order(ByteOrder.LITTLE_ENDIAN);
+            long valid = HEADER;
+            while (readFully(ch, b)) {
+                crc.reset();
+                crc.update(b.array(), 0, d * 4);
+                if (b.getInt(d * 4) != (int) crc.getValue()) break;
+                float[] r = new float[d];
+                b.flip();
+                b.asFloatBuffer().get(r);
+                addCapped(rows, r, capacity);
+                valid += b.capacity();
+                records++;
+            }
+            if (valid < ch.size()) {
+                Log.w(TAG, "journal " + logFile.getName() + ": dropping " + (ch.size() - valid) + " trailing byte(s)");
+                in.setLength(valid);
+            }
+            dim = d;
+        }
+    }
+
+    private void open(int d) throws IOException {
+        raf = new RandomAccessFile(logFile, "rw");
+        try {
+            openLog(d);
+        } catch (IOException e) {
+            closeLog();
+            throw e;
+        }
+    }
+
+    private void openLog(int d) throws IOException {
+        if (dim < 0 || raf.length() < HEADER) {
+            ByteBuffer h = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+            h.putInt(MAGIC).putInt(VERSION).putInt(d).putInt(0).flip();
+            raf.setLength(0);
+            FileChannel ch = raf.getChannel();
+            while (h.hasRemaining()) ch.write(h, HEADER - h.remaining());
+            records = 0;
+        } else {
+            long rl = d * 4L + 4;
+            long end = HEADER + (raf.length() - HEADER) / rl * rl;
+            if (end != raf.length()) raf.setLength(end);   // partial record of a failed append
+        }
+        dim = d;
+        raf.seek(raf.length());
+        rec = ByteBuffer.allocate(d * 4 + 4).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private void closeLog() {
+        if (raf == null) return;
+        try { raf.close(); } catch (IOException ignore) {}
+        raf = null;
+    }
+
+    private static boolean readFully(FileChannel ch, ByteBuffer b) throws IOException {
+        b.clear();
+        while (b.hasRemaining()) {
+            if (ch.read(b) < 0) return false;
+        }
+        return true;
+    }
+
+    private static void addCapped(ArrayDeque<float[]> rows, float[] r, int capacity) {
+        if (rows.size() >= capacity) rows.removeFirst();
+        rows.addLast(r);
+    }
+}
@@ -1,6 +1,7 @@
 // MyLibrary/src/main/java/com/davoice/speakerid/Fbank.java
 package ai.perplexity.hotword.speakerid;
 
+import java.nio.FloatBuffer;
 import java.util.Arrays;
 
 final class Fbank {
@@ -16,8 +17,18 @@ final class Fbank {
         final boolean snipEdges;  // true (Kaldi/Sherpa default)
         final float dither;       // 0.0 (deterministic)
         final boolean doCmn;      // <-- NEW: default false to match Python speaker pipeline
+        final boolean realFft;    // true: N-point real FFT packed into an N/2 complex FFT (tables precomputed)
+        final boolean fastMath;   // false; true: table log (see FAST_LOG_MAX_ERR) + fused int16→window kernel
 
         Config(int sr) {
+            this(sr, true, false);
+        }
+
+        Config(int sr, boolean realFft) {
+            this(sr, realFft, false);
+        }
+
+        Config(int sr, boolean realFft, boolean fastMath) {
             this.sampleRate = sr;
             this.frameLen   = Math.round(0.025f * sr); // 25 ms
             this.frameShift = Math.round(0.010f * sr); // 10 ms
@@ -29,60 +40,245 @@ final class Fbank {
             this.snipEdges  = true;
             this.dither     = 0f;
             this.doCmn      = false; // <-- default OFF for speaker models
+            this.realFft    = realFft;
+            this.fastMath   = fastMath;
         }
     }
 
     private final Config cfg;
     private final float[] hann;           // window[frameLen]
-    private final float[][] melFilters;   // [nMels][nFft/2+1]
+    private final float[] hannPcm;        // hann / 32768 (fused int16 kernel, fastMath only)
+    // Sparse triangular filters (CSR): filter m covers bins melStart[m] .. melStart[m] + (melOff[m+1]-melOff[m]) - 1
+    private final int[] melStart;         // [nMels] first non-zero bin
+    private final int[] melOff;           // [nMels+1] offsets into melW
+    private final float[] melW;           // concatenated non-zero weights
     private final float logFloor = (float)Math.log(1e-10);
 
+    // Real-FFT tables (built once): half-size complex FFT + split/post-processing twiddles
+    private final int half;               // nFft/2
+    private final int[] bitRev;           // [half]
+    private final float[] fftCos;         // [half/2] cos(2πj/half)
+    private final float[] fftSin;         // [half/2] sin(2πj/half)
+    private final float[] postCos;        // [half+1] cos(2πk/nFft)
+    private final float[] postSin;        // [half+1] sin(2πk/nFft)
+
+    // Reusable scratch for compute()/computeInto(); an Fbank instance is not thread-safe
+    // (FbankStream brings its own scratch and only shares the read-only tables).
+    private float[] xBuf = new float[0];
+    private float[] matBuf = new float[0];  // [T * nMels] row-major
+    private final float[] reBuf;
+    private final float[] imBuf;
+    private final float[] powBuf;
+
     Fbank(Config c) {
         this.cfg = c;
         this.hann = makeHann(c.frameLen);
-        this.melFilters = buildMelTriFilters(c);
+        this.hannPcm = new float[c.frameLen];
+        for (int i = 0; i < c.frameLen; i++) hannPcm[i] = hann[i] / 32768f;
+
+        float[][] dense = buildMelTriFilters(c); // construction only; compressed below
+        this.melStart = new int[c.nMels];
+        this.melOff = new int[c.nMels + 1];
+        int nnz = 0;
+        int[] first = new int[c.nMels], last = new int[c.nMels];
+        for (int m = 0; m < c.nMels; m++) {
+            float[] w = dense[m];
+            int lo = 0, hi = w.length - 1;
+            while (lo <= hi && w[lo] == 0f) lo++;
+            while (hi >= lo && w[hi] == 0f) hi--;
+            first[m] = lo; last[m] = hi;
+            nnz += Math.max(0, hi - lo + 1);
+        }
+        this.melW = new float[nnz];
+        for (int m = 0, pos = 0; m < c.nMels; m++) {
+            melStart[m] = first[m];
+            melOff[m] = pos;
+            for (int k = first[m]; k <= last[m]; k++) melW[pos++] = dense[m][k];
+            melOff[m + 1] = pos;
+        }
+
+        this.reBuf = new float[c.nFft];
+        this.imBuf = new float[c.nFft];
+        this.powBuf = new float[c.nFft / 2 + 1];
+
+        this.half = c.nFft / 2;
+        this.bitRev = makeBitReverse(half);
+        this.fftCos = new float[half / 2];
+        this.fftSin = new float[half / 2];
+        for (int j = 0; j < half / 2; j++) {
+            double a = 2.0 * Math.PI * j / half;
+            fftCos[j] = (float)Math.cos(a);
+            fftSin[j] = (float)Math.sin(a);
+        }
+        this.postCos = new float[half + 1];
+        this.postSin = new float[half + 1];
+        for (int k = 0; k <= half; k++) {
+            double a = 2.0 * Math.PI * k / c.nFft;
+            postCos[k] = (float)Math.cos(a);
+            postSin[k] = (float)Math.sin(a);
+        }
     }
 
     /** Main entry: short[] pcm16 → [T, nMels] features (log Mel), optional per-bin mean norm (CMN). */
     float[][] compute(short[] pcm) {
         if (pcm == null || pcm.length == 0) return new float[0][0];
+        int T = computeMatrix(pcm, 0, pcm.length);
+        float[][] feats = new float[T][];
+        for (int t = 0; t < T; t++) feats[t] = Arrays.copyOfRange(matBuf, t * cfg.nMels, (t + 1) * cfg.nMels);
+        return feats;
+    }
 
-        // Convert to float -1..1
-        float[] x = new float[pcm.length];
-        for (int i = 0; i < pcm.length; i++) x[i] = pcm[i] / 32768f;
+    /** Frames produced for len samples (0 if too short under snipEdges). */
+    int numFrames(int len) {
+        if (len <= 0) return 0;
+        if (cfg.snipEdges) return (len < cfg.frameLen) ? 0 : 1 + (len - cfg.frameLen) / cfg.frameShift;
+        return (int)Math.ceil((len - cfg.frameLen) / (double)cfg.frameShift) + 1;
+    }
 
-        // Dither (optional, default 0)
-        if (cfg.dither > 0f) {
-            for (int i = 0; i < x.length; i++) x[i] += cfg.dither * (float)gauss();
-        }
+    /**
+     * Allocation-free entry: log-mels of pcm[off, off+len) written straight into dst (absolute, from 0)
+     * in model layout — melMajor ? [keepMels, outFrames] : [outFrames, keepMels]. Only the first
+     * keepMels bins are kept; frames are loop-padded or truncated to outFrames (<=0 → natural T).
+     * Returns the natural frame count T (0 → nothing written).
+     */
+    int computeInto(short[] pcm, int off, int len, FloatBuffer dst, int keepMels, int outFrames, boolean melMajor) {
+        if (pcm == null || len <= 0) return 0;
+        int T = computeMatrix(pcm, off, len);
+        if (T > 0) writeLayout(matBuf, cfg.nMels, 0, T, dst, keepMels, outFrames, melMajor);
+        return T;
+    }
 
-        // Framing
-        int T;
-        if (cfg.snipEdges) {
-            if (x.length < cfg.frameLen) return new float[0][0];
-            T = 1 + (x.length - cfg.frameLen) / cfg.frameShift;
+    /**
+     * Copy frames [startFrame, startFrame+frames) of a row-major [*, srcMels] matrix into dst in model
+     * layout, keeping the first keepMels bins and loop-padding/truncating to outFrames (<=0 → frames).
+     */
+    static void writeLayout(float[] src, int srcMels, int startFrame, int frames,
+                            FloatBuffer dst, int keepMels, int outFrames, boolean melMajor) {
+        int D = Math.min(keepMels, srcMels);
+        int Tout = (outFrames > 0) ? outFrames : frames;
+        if (melMajor) {
+            int pos = 0;
+            for (int d = 0; d < D; d++) {
+                for (int t = 0; t < Tout; t++) dst.put(pos++, src[(startFrame + t % frames) * srcMels + d]);
+            }
         } else {
-            T = (int)Math.ceil((x.length - cfg.frameLen) / (double)cfg.frameShift) + 1;
+            for (int t = 0; t < Tout; t++) {
+                dst.position(t * D);
+                dst.put(src, (startFrame + t % frames) * srcMels, D);
+            }
+            dst.position(0);
+        }
+    }
+
+    /** Fill matBuf with [T, nMels] log-mels of pcm[off, off+len); returns T. Reuses all scratch. */
+    private int computeMatrix(short[] pcm, int off, int len) {
+        int T = numFrames(len);
+        if (T <= 0) return 0;
+
+        if (matBuf.length < T * cfg.nMels) matBuf = new float[T * cfg.nMels];
+
+        if (cfg.fastMath && cfg.dither <= 0f) {
+            // fused kernel: int16 → windowed frame in one pass, no float copy of the input
+            for (int t = 0; t < T; t++) {
+                frameIntoPcm(pcm, off, len, t * cfg.frameShift, reBuf, imBuf, powBuf, matBuf, t * cfg.nMels);
+            }
+            if (cfg.doCmn) cmnInPlace(matBuf, T, cfg.nMels);
+            return T;
         }
-        float[][] feats = new float[T][cfg.nMels];
 
-        float[] re = new float[cfg.nFft];
-        float[] im = new float[cfg.nFft];
-        float[] pow = new float[cfg.nFft/2 + 1];
+        // Convert to float -1..1 (+ optional dither, default 0)
+        if (xBuf.length < len) xBuf = new float[len];
+        float[] x = xBuf;
+        for (int i = 0; i < len; i++) x[i] = dither(pcm[off + i] / 32768f);
 
         for (int t = 0; t < T; t++) {
-            int start = t * cfg.frameShift;
-            Arrays.fill(re, 0f);
-            Arrays.fill(im, 0f);
-
-            // Windowed frame
-            for (int i = 0; i < cfg.frameLen; i++) {
-                int idx = start + i;
-                float s = 0f;
-                if (idx >= 0 && idx < x.length) s = x[idx];
-                re[i] = s * hann[i];
+            frameInto(x, len, t * cfg.frameShift, reBuf, imBuf, powBuf, matBuf, t * cfg.nMels);
+        }
+
+        // Optional per-bin CMN (speaker pipeline: OFF by default)
+        if (cfg.doCmn) cmnInPlace(matBuf, T, cfg.nMels);
+        return T;
+    }
+
+    /**
+     * One log-mel frame from x[start .. start+frameLen) (zero beyond xLen) into out[outOff .. outOff+nMels).
+     * Shared by {@link #compute} and {@link FbankStream}; re/im/pow are caller-owned scratch.
+     */
+    void frameInto(float[] x, int xLen, int start,
+                   float[] re, float[] im, float[] pow,
+                   float[] out, int outOff) {
+        Arrays.fill(re, 0f);
+        Arrays.fill(im, 0f);
+
+        // Windowed frame (real FFT: packed as z[k] = x[2k] + i*x[2k+1] into re/im[0..half))
+        for (int i = 0; i < cfg.frameLen; i++) {
+            int idx = start + i;
+            float s = 0f;
+            if (idx >= 0 && idx < xLen) s = x[idx];
+            if (!cfg.realFft)       re[i] = s * hann[i];
+            else if ((i & 1) == 0)  re[i >> 1] = s * hann[i];
+            else                    im[i >> 1] = s * hann[i];
+        }
+        spectrumToMel(re, im, pow, out, outOff);
+    }
+
+    /**
+     * Fused fastMath kernel: same as {@link #frameInto} but reads int16 pcm[off .. off+len) directly,
+     * scaling and windowing in one multiply (hann/32768). No dither.
+     */
+    private void frameIntoPcm(short[] pcm, int off, int len, int start,
+                              float[] re, float[] im, float[] pow,
+                              float[] out, int outOff) {
+        windowPcm(pcm, off, len, start, re, im);
+        spectrumToMel(re, im, pow, out, outOff);
+    }
+
+    /**
+     * Linear power spectrum pow[0 .. nFft/2] of the hann-windowed int16 frame pcm[off+start ..] (zero
+     * beyond len). No mel, no log; for cheap spectral gates (see CascadedVad). re/im/pow are scratch.
+     */
+    void framePowerPcm(short[] pcm, int off, int len, int start, float[] re, float[] im, float[] pow) {
+        windowPcm(pcm, off, len, start, re, im);
+        power(re, im, pow);
+    }
+
+    /** int16 frame × hann/32768 into re/im (packed for the real FFT when realFft). */
+    private void windowPcm(short[] pcm, int off, int len, int start, float[] re, float[] im) {
+        Arrays.fill(re, 0f);
+        Arrays.fill(im, 0f);
+
+        int n = Math.min(cfg.frameLen, len - start); // samples available in this frame
+        if (cfg.realFft) {
+            int base = off + start;
+            for (int i = 0; i < n; i += 2) {
+                re[i >> 1] = pcm[base + i] * hannPcm[i];
+                if (i + 1 < n) im[i >> 1] = pcm[base + i + 1] * hannPcm[i + 1];
             }
+        } else {
+            for (int i = 0; i < n; i++) re[i] = pcm[off + start + i] * hannPcm[i];
+        }
+    }
+
+    /** FFT of the windowed frame in re/im → power → sparse mel → (fast) log into out. */
+    private void spectrumToMel(float[] re, float[] im, float[] pow, float[] out, int outOff) {
+        power(re, im, pow);
+
+        // Apply Mel filters (non-zero span of each triangle only)
+        for (int mIx = 0; mIx < cfg.nMels; mIx++) {
+            float e = 0f;
+            int k = melStart[mIx];
+            for (int j = melOff[mIx], end = melOff[mIx + 1]; j < end; j++, k++) e += melW[j] * pow[k];
+            if (!cfg.useLog)      out[outOff + mIx] = e;
+            else if (e <= 1e-10f) out[outOff + mIx] = logFloor;
+            else                  out[outOff + mIx] = cfg.fastMath ? fastLog(e) : (float)Math.log(e);
+        }
+    }
 
+    /** FFT of the windowed frame in re/im → power spectrum pow[0 .. nFft/2]. */
+    private void power(float[] re, float[] im, float[] pow) {
+        if (cfg.realFft) {
+            realFftPower(re, im, pow);
+        } else {
             // FFT (real → complex)
             fftRadix2(re, im); // in-place
 
@@ -91,22 +287,39 @@ final class Fbank {
                 float rr = re[k], ii = im[k];
                 pow[k] = rr*rr + ii*ii;
             }
-
-            // Apply Mel filters
-            float[] m = feats[t];
-            Arrays.fill(m, 0f);
-            for (int mIx = 0; mIx < cfg.nMels; mIx++) {
-                float e = 0f;
-                float[] w = melFilters[mIx];
-                for (int k = 0; k < w.length; k++) e += w[k] * pow[k];
-                m[mIx] = cfg.useLog ? ((e > 1e-10f) ? (float)Math.log(e) : logFloor) : e;
-            }
         }
+    }
 
-        // Optional per-bin CMN (speaker pipeline: OFF by default)
-        if (cfg.doCmn) cmnInPlace(feats);
+    // ---- fast log: ln(x) = e*ln2 + ln(1.m), ln(1.m) from a 257-entry table with linear interpolation ----
 
-        return feats;
+    private static final int LOG_TABLE_BITS = 8;
+    private static final float LN2 = (float)Math.log(2.0);
+    private static final float[] LN_MANT = new float[(1 << LOG_TABLE_BITS) + 1];
+    static {
+        for (int j = 0; j < LN_MANT.length; j++) LN_MANT[j] = (float)Math.log(1.0 + j / (double)(1 << LOG_TABLE_BITS));
+    }
+    /**
+     * Max |fastLog(x) - Math.log(x)|: 3e-6 for |ln x| < 32 (all mel energies above the 1e-10 floor),
+     * 1.5e-5 over every normal float (exp*ln2 rounding). Interpolation alone is bounded by h²/8 ≈ 1.9e-6.
+     */
+    static final float FAST_LOG_MAX_ERR = 1.5e-5f;
+
+    /** Natural log of a normal, positive float; see {@link #FAST_LOG_MAX_ERR}. */
+    static float fastLog(float x) {
+        int bits = Float.floatToRawIntBits(x);
+        int exp = ((bits >>> 23) & 0xFF) - 127;
+        int mant = bits & 0x7FFFFF;
+        int j = mant >>> (23 - LOG_TABLE_BITS);
+        float frac = (mant & ((1 << (23 - LOG_TABLE_BITS)) - 1)) * (1f / (1 << (23 - LOG_TABLE_BITS)));
+        float lo = LN_MANT[j];
+        return exp * LN2 + lo + (LN_MANT[j + 1] - lo) * frac;
+    }
+
+    Config config() { return cfg; }
+
+    /** Dither one sample (no-op when cfg.dither == 0). */
+    float dither(float s) {
+        return (cfg.dither > 0f) ? s + cfg.dither * (float)gauss() : s;
     }
 
     // ---- helpers ----
@@ -167,17 +380,74 @@ final class Fbank {
         return out;
     }
 
-    private static void cmnInPlace(float[][] x) {
-        if (x.length == 0) return;
-        int T = x.length, D = x[0].length;
+    private static void cmnInPlace(float[] x, int T, int D) {
+        if (T == 0) return;
         float[] mean = new float[D];
         for (int t = 0; t < T; t++)
             for (int d = 0; d < D; d++)
-                mean[d] += x[t][d];
+                mean[d] += x[t * D + d];
         for (int d = 0; d < D; d++) mean[d] /= Math.max(1, T);
         for (int t = 0; t < T; t++)
             for (int d = 0; d < D; d++)
-                x[t][d] -= mean[d];
+                x[t * D + d] -= mean[d];
+    }
+
+    private static int[] makeBitReverse(int n) {
+        int[] rev = new int[n];
+        int bits = Integer.numberOfTrailingZeros(n);
+        for (int i = 0; i < n; i++) rev[i] = (bits == 0) ? 0 : Integer.reverse(i) >>> (32 - bits);
+        return rev;
+    }
+
+    /**
+     * Power spectrum |X[k]|^2, k=0..nFft/2, of an nFft-point real frame that has been packed as
+     * z[k] = x[2k] + i*x[2k+1] in re/im[0..half). One half-size complex FFT plus the standard
+     * split step X[k] = E[k] + W^k O[k]; all twiddles and the bit-reversal come from tables.
+     */
+    private void realFftPower(float[] re, float[] im, float[] pow) {
+        final int n = half;
+
+        // bit-reverse (table)
+        for (int i = 0; i < n; i++) {
+            int j = bitRev[i];
+            if (i < j) {
+                float tr = re[i]; re[i] = re[j]; re[j] = tr;
+                float ti = im[i]; im[i] = im[j]; im[j] = ti;
+            }
+        }
+        // Cooley–Tukey, twiddle W_len^k = W_n^(k*n/len) from the table
+        for (int len = 2; len <= n; len <<= 1) {
+            int h = len >>> 1;
+            int step = n / len;
+            for (int i = 0; i < n; i += len) {
+                for (int k = 0, tw = 0; k < h; k++, tw += step) {
+                    float wr = fftCos[tw], wi = -fftSin[tw];
+                    int u = i + k;
+                    int v = u + h;
+                    float vr = re[v] * wr - im[v] * wi;
+                    float vi = re[v] * wi + im[v] * wr;
+                    re[v] = re[u] - vr;
+                    im[v] = im[u] - vi;
+                    re[u] += vr;
+                    im[u] += vi;
+                }
+            }
+        }
+
+        // Split: X[0] = Re z0 + Im z0, X[n] = Re z0 - Im z0
+        float dc = re[0] + im[0], ny = re[0] - im[0];
+        pow[0] = dc * dc;
+        pow[n] = ny * ny;
+        for (int k = 1; k < n; k++) {
+            float a = re[k], b = im[k];
+            float c = re[n - k], d = im[n - k];
+            float er = 0.5f * (a + c), ei = 0.5f * (b - d);   // even part
+            float or = 0.5f * (b + d), oi = -0.5f * (a - c);  // odd part
+            float wr = postCos[k], wi = -postSin[k];
+            float xr = er + (wr * or - wi * oi);
+            float xi = ei + (wr * oi + wi * or);
+            pow[k] = xr * xr + xi * xi;
+        }
     }
 
     // Simple in-place radix-2 FFT for real input in re[], imag in im[]
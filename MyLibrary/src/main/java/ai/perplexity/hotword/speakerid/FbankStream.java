@@ -0,0 +1,92 @@
+package ai.perplexity.hotword.speakerid;
+
+import java.util.Arrays;
+
+/**
+ * Stateful streaming front-end on top of {@link Fbank}.
+ * PCM blocks are pushed as they arrive; every complete 25 ms frame (10 ms hop) is computed once
+ * and kept in a rolling, flat [T, nMels] matrix. Frame t covers samples [t*shift, t*shift + frameLen)
+ * of everything accepted since {@link #reset()}, i.e. exactly what {@code Fbank.compute()} would
+ * produce for the concatenated PCM (snipEdges framing; CMN, off by default, is not applied).
+ */
+final class FbankStream {
+    private final Fbank fbank;
+    private final int frameLen;
+    private final int frameShift;
+    private final int nMels;
+
+    // Samples not yet fully consumed by a frame (float -1..1, dithered once)
+    private float[] pend;
+    private int pendN = 0;
+
+    // Computed frames, row-major [frames, nMels]
+    private float[] feats;
+    private int frames = 0;
+    private long samples = 0;
+
+    // Per-stream scratch (one FFT frame)
+    private final float[] re;
+    private final float[] im;
+    private final float[] pow;
+
+    FbankStream(Fbank fbank) {
+        this.fbank = fbank;
+        Fbank.Config c = fbank.config();
+        this.frameLen = c.frameLen;
+        this.frameShift = c.frameShift;
+        this.nMels = c.nMels;
+        this.pend = new float[Math.max(frameLen * 2, 2048)];
+        this.feats = new float[nMels * 256];
+        this.re = new float[c.nFft];
+        this.im = new float[c.nFft];
+        this.pow = new float[c.nFft / 2 + 1];
+    }
+
+    void reset() { pendN = 0; frames = 0; samples = 0; }
+
+    void accept(short[] pcm) {
+        if (pcm != null) accept(pcm, 0, pcm.length);
+    }
+
+    /** Append pcm[off .. off+len) and compute every frame that became complete. */
+    void accept(short[] pcm, int off, int len) {
+        if (pcm == null || len <= 0) return;
+        if (pendN + len > pend.length) pend = Arrays.copyOf(pend, Math.max(pendN + len, pend.length * 2));
+        for (int i = 0; i < len; i++) pend[pendN + i] = fbank.dither(pcm[off + i] / 32768f);
+        pendN += len;
+        samples += len;
+
+        int start = 0;
+        while (start + frameLen <= pendN) {
+            ensureFrames(frames + 1);
+            fbank.frameInto(pend, pendN, start, re, im, pow, feats, frames * nMels);
+            frames++;
+            start += frameShift;
+        }
+        if (start > 0) {
+            int keep = pendN - start;
+            System.arraycopy(pend, start, pend, 0, keep);
+            pendN = keep;
+        }
+    }
+
+    /** Number of complete frames so far. */
+    int frames() { return frames; }
+    /** Number of samples accepted since reset. */
+    long samples() { return samples; }
+    int nMels() { return nMels; }
+    int frameShift() { return frameShift; }
+    int frameLen() { return frameLen; }
+    /** Backing row-major matrix; only the first frames()*nMels() values are valid. */
+    float[] data() { return feats; }
+
+    /** Frames a snipEdges window of len samples produces (0 if shorter than one frame). */
+    int framesFor(int len) {
+        return (len < frameLen) ? 0 : 1 + (len - frameLen) / frameShift;
+    }
+
+    private void ensureFrames(int n) {
+        if (feats.length >= n * nMels) return;
+        feats = Arrays.copyOf(feats, Math.max(n * nMels, feats.length * 2));
+    }
+}
@@ -0,0 +1,151 @@
+package ai.perplexity.hotword.speakerid;
+
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-behind persistence of the adapted running mean (+ count).
+ * The engine keeps the authoritative mean in memory and {@link #submit}s each update; only the
+ * latest one is kept and handed to the {@link Sink} on one background thread after flushEvery
+ * updates or flushAfterMs, whichever comes first. Sinks write with temp + fsync + rename (.npy +
+ * .count, or the profile store), so a crash loses at most the pending updates, never the file.
+ * submit/flush/discard may be called from any thread.
+ */
+final class MeanWriteBehind implements Closeable {
+    private static final String TAG = "MeanWriteBehind";
+
+    /** Writes one mean/count durably; called on the persist thread only. */
+    interface Sink {
+        void write(float[] mean, int count) throws IOException;
+    }
+
+    private final Sink sink;
+    private final String label;
+    private final int flushEvery;
+    private final long flushAfterMs;
+    private final ScheduledExecutorService io;
+
+    // latest unwritten state, guarded by this
+    private float[] pendingMean = null;
+    private int pendingCount = 0;
+    private int pendingUpdates = 0;
+    private ScheduledFuture<?> timer = null;
+
+    private long writes = 0;
+    private long updates = 0;
+
+    private final Runnable writeTask = new Runnable() {
+        @Override public void run() { writePending(); }
+    };
+
+    MeanWriteBehind(Sink sink, String label, int flushEvery, float flushAfterSec) {
+        this.sink = sink;
+        this.label = label;
+        this.flushEvery = Math.max(1, flushEvery);
+        this.flushAfterMs = Math.max(0L, Math.round(flushAfterSec * 1000.0));
+        this.io = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "SpeakerId-persist");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /** Record a new mean/count; never blocks on I/O. */
+    synchronized void submit(float[] mean, int count) {
+        pendingMean = Arrays.copyOf(mean, mean.length);
+        pendingCount = count;
+        pendingUpdates++;
+        if (pendingUpdates >= flushEvery) schedule(0);
+        else if (timer == null) schedule(flushAfterMs);
+    }
+
+    /** Write pending state soon, without waiting (e.g. app going to background). */
+    synchronized void flushAsync() {
+        if (pendingMean != null) schedule(0);
+    }
+
+    /** Write pending state now and wait until it (and any write in progress) is on disk. */
+    void flush() {
+        runOnIo(writeTask);
+    }
+
+    /**
+     * Drop pending state and wait for a write in progress, so the files can be replaced or deleted
+     * without an old mean landing on top afterwards.
+     */
+    void discard() {
+        synchronized (this) {
+            pendingMean = null;
+            pendingUpdates = 0;
+            if (timer != null) timer.cancel(false);
+            timer = null;
+        }
+        runOnIo(new Runnable() { @Override public void run() {} });
+    }
+
+    String stats() {
+        return "[PERSIST] updates=" + updates + " writes=" + writes;
+    }
+
+    @Override public void close() {
+        flush();
+        io.shutdown();
+        Log.i(TAG, stats());
+    }
+
+    private void schedule(long delayMs) {
+        if (timer != null) {
+            if (delayMs > 0) return;    // already due no later than that
+            timer.cancel(false);
+        }
+        timer = io.schedule(writeTask, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void runOnIo(Runnable r) {
+        try {
+            io.submit(r).get();
+        } catch (Exception e) {
+            Log.w(TAG, "io: " + e);
+        }
+    }
+
+    // io thread only
+    private void writePending() {
+        float[] mean;
+        int count, n;
+        synchronized (this) {
+            timer = null;
+            if (pendingMean == null) return;
+            mean = pendingMean;
+            count = pendingCount;
+            n = pendingUpdates;
+            pendingMean = null;
+            pendingUpdates = 0;
+        }
+        try {
+            sink.write(mean, count);
+            writes++;
+            updates += n;
+            Log.i(TAG, "[ADAPT] persisted count=" + count + " (" + n + " update(s) coalesced): " + label);
+        } catch (Exception e) {
+            Log.e(TAG, "persist failed, will retry with the next update: " + e);
+            synchronized (this) {
+                if (pendingMean == null) { // nothing newer arrived meanwhile
+                    pendingMean = mean;
+                    pendingCount = count;
+                    pendingUpdates = n;
+                }
+            }
+        }
+    }
+}
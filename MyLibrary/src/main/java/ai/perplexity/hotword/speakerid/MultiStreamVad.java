@@ -0,0 +1,178 @@
+package ai.perplexity.hotword.speakerid;
+
+import ai.onnxruntime.OrtException;
+import android.content.Context;
+import android.util.Log;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Silero VAD for several concurrent audio sources on one session.
+ * Each {@link Stream} owns its own LSTM state. Sources {@link Stream#submit} one frame per tick;
+ * {@link #tick()} runs every pending frame as one batched session.run (frames of equal length
+ * share a batch) and scatters probabilities and state back per stream.
+ * submit/tick may be called from different threads: the instance lock only guards swapping frames
+ * and copying state, session.run happens under a separate run lock, so submit never waits for
+ * inference. Streams reset or closed while their frame is in flight discard its result.
+ */
+public final class MultiStreamVad implements Closeable {
+    private static final String TAG = "MultiStreamVad";
+    private static final int STATE = 2 * 64; // [2 layers, 64] per stream
+
+    /** One audio source with its own recurrent state. */
+    public final class Stream implements Closeable {
+        private final float[] h = new float[STATE];
+        private final float[] c = new float[STATE];
+        private short[] pending = null;
+        private float lastProb = 0f;
+        private boolean open = true;
+        private int epoch = 0;        // bumped by reset/close: in-flight results are stale
+        private long lastTick = -1;   // tick that consumed this stream's last frame
+
+        private Stream() {}
+
+        /** Queue this tick's frame (replaces an earlier frame not yet consumed by tick()). */
+        public void submit(short[] frame) {
+            synchronized (MultiStreamVad.this) {
+                if (open && frame != null && frame.length > 0) pending = frame;
+            }
+        }
+
+        /** Probability from the last tick that included this stream. */
+        public float lastProb() {
+            synchronized (MultiStreamVad.this) { return lastProb; }
+        }
+
+        public void reset() {
+            synchronized (MultiStreamVad.this) {
+                Arrays.fill(h, 0f);
+                Arrays.fill(c, 0f);
+                pending = null;
+                lastProb = 0f;
+                epoch++;
+            }
+        }
+
+        @Override public void close() {
+            synchronized (MultiStreamVad.this) {
+                open = false;
+                pending = null;
+                epoch++;
+                streams.remove(this);
+            }
+        }
+    }
+
+    private final VadDetectorOnnx model;
+    private final List<Stream> streams = new ArrayList<>();   // guarded by this
+    private long ticks = 0;                                   // guarded by this
+
+    // session.run and the packed batch scratch below; taken before (never inside) this
+    private final Object runLock = new Object();
+    private short[][] batchPcm = new short[0][];
+    private float[] batchH = new float[0];
+    private float[] batchC = new float[0];
+    private float[] batchP = new float[0];
+    private int[] batchEpoch = new int[0];
+    private final List<Stream> group = new ArrayList<>();
+
+    public MultiStreamVad(Context ctx, String vadOnnxPath) throws OrtException {
+        this.model = new VadDetectorOnnx(ctx, vadOnnxPath);
+    }
+
+    public synchronized Stream open() {
+        Stream s = new Stream();
+        streams.add(s);
+        return s;
+    }
+
+    /**
+     * Run all pending frames (one batched run per distinct frame length) and update each stream's
+     * state and lastProb. Each stream contributes at most one frame per tick; frames submitted while
+     * the tick runs wait for the next one. Returns the number of frames processed.
+     */
+    public int tick() throws OrtException {
+        synchronized (runLock) {
+            long t;
+            synchronized (this) { t = ticks++; }
+            int done = 0;
+            while (true) {
+                int B = gatherGroup(t);
+                if (B == 0) return done;
+                try {
+                    model.stepBatch(batchPcm, B, batchH, batchC, batchP); // outside this: submit stays free
+                } catch (OrtException | RuntimeException e) {
+                    Arrays.fill(batchPcm, 0, B, null); // failed run: frames dropped, state unchanged
+                    throw e;
+                }
+                scatterGroup(B);
+                done += B;
+            }
+        }
+    }
+
+    /**
+     * Next group: pending frames (of streams not yet run in tick t) with the length of the first one.
+     * Takes the frames and copies state into the batch, layout [2, B, 64]. A failed run drops them.
+     */
+    private synchronized int gatherGroup(long t) {
+        group.clear();
+        int n = -1;
+        for (Stream s : streams) {
+            if (s.pending == null || s.lastTick == t) continue;
+            if (n < 0) n = s.pending.length;
+            if (s.pending.length == n) group.add(s);
+        }
+        int B = group.size();
+        ensureBatch(B);
+        for (int b = 0; b < B; b++) {
+            Stream s = group.get(b);
+            batchPcm[b] = s.pending;
+            batchEpoch[b] = s.epoch;
+            s.pending = null;
+            s.lastTick = t;
+            for (int l = 0; l < 2; l++) {
+                System.arraycopy(s.h, l * 64, batchH, (l * B + b) * 64, 64);
+                System.arraycopy(s.c, l * 64, batchC, (l * B + b) * 64, 64);
+            }
+        }
+        return B;
+    }
+
+    /** Write results back, except to streams reset or closed since gatherGroup. */
+    private synchronized void scatterGroup(int B) {
+        for (int b = 0; b < B; b++) {
+            Stream s = group.get(b);
+            batchPcm[b] = null;
+            if (!s.open || s.epoch != batchEpoch[b]) continue;
+            for (int l = 0; l < 2; l++) {
+                System.arraycopy(batchH, (l * B + b) * 64, s.h, l * 64, 64);
+                System.arraycopy(batchC, (l * B + b) * 64, s.c, l * 64, 64);
+            }
+            s.lastProb = batchP[b];
+        }
+    }
+
+    private void ensureBatch(int B) {
+        if (batchP.length >= B) return;
+        batchPcm = new short[B][];
+        batchH = new float[B * STATE];
+        batchC = new float[B * STATE];
+        batchP = new float[B];
+        batchEpoch = new int[B];
+    }
+
+    public synchronized int activeStreams() { return streams.size(); }
+
+    public String tensorPoolStats() { return model.tensorPoolStats(); }
+
+    @Override public void close() {
+        synchronized (runLock) {           // not while a tick is inside session.run
+            synchronized (this) { streams.clear(); }
+            try { model.close(); } catch (Exception e) { Log.w(TAG, "close: " + e); }
+        }
+    }
+}
@@ -1,39 +1,61 @@
 package ai.perplexity.hotword.speakerid;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import android.util.Log;
 import java.nio.channels.FileChannel;
 
 
-/** Minimal NumPy .npy v1.0 writer/reader for float32 (1D and 2D). */
+/** Minimal NumPy .npy writer (v1.0, float32) and reader (v1/v2/v3, float32/float16), 1D and 2D. */
 public final class NpyUtil {
     
     private static final String TAG = "NpyUtil";
 
-    // === NEW: atomic wrappers ===
+    /** How far a save is pushed to storage before it returns. */
+    public enum Durability {
+        /** Leave it to the page cache. */
+        NONE,
+        /** fdatasync the file. */
+        FILE,
+        /** fdatasync the file, then fsync its directory so a new name / rename survives power loss. */
+        FILE_AND_DIR
+    }
+
+    // === atomic wrappers: temp file + rename, then re-read and validate ===
     public static void saveVectorFloat32Atomic(File f, float[] v) throws IOException {
-        saveArrayFloat32Atomic(f, new float[][]{v});
+        saveArrayFloat32Atomic(f, new float[][]{v}, Durability.FILE);
+    }
+
+    public static void saveVectorFloat32Atomic(File f, float[] v, Durability d) throws IOException {
+        saveArrayFloat32Atomic(f, new float[][]{v}, d);
+    }
+
+    public static void saveMatrixFloat32Atomic(File f, float[][] m) throws IOException {
+        saveArrayFloat32Atomic(f, m, Durability.FILE);
+    }
+
+    public static void saveMatrixFloat32Atomic(File f, float[][] m, Durability d) throws IOException {
+        saveArrayFloat32Atomic(f, m, d);
     }
 
-        private static void saveArrayFloat32Atomic(File dest, float[][] m) throws IOException {
+    private static void saveArrayFloat32Atomic(File dest, float[][] m, Durability d) throws IOException {
         File dir = dest.getParentFile();
         if (dir != null && !dir.exists()) dir.mkdirs();
+        ByteBuffer bb = encode(m);
         File tmp = File.createTempFile(dest.getName(), ".tmp", dir);
 
-        // Write to temp
-        writeArrayFloat32(tmp, m);
-
-        // Force to disk
-        try (FileOutputStream fos = new FileOutputStream(tmp, true)) {
-            FileChannel ch = fos.getChannel();
-            ch.force(true); // metadata + data
-            fos.getFD().sync();
+        // Write to temp (+ sync per d)
+        try {
+            writeFully(tmp, bb, d);
         } catch (Throwable t) {
             //noinspection ResultOfMethodCallIgnored
             tmp.delete();
-            throw new IOException("fsync failed for " + tmp, t);
+            throw new IOException("write failed for " + tmp, t);
         }
 
         // Atomic replace
@@ -47,6 +69,7 @@ public final class NpyUtil {
                 throw new IOException("renameTo failed for " + dest);
             }
         }
+        if (d == Durability.FILE_AND_DIR) syncDir(dir);
 
         // Validate by re-reading
         if (m.length == 1) {
@@ -59,36 +82,6 @@ public final class NpyUtil {
         Log.i(TAG, "saveArrayFloat32Atomic: wrote+validated " + dest.getAbsolutePath());
     }
 
-    // === existing save, split so atomic wrapper can reuse ===
-    private static void writeArrayFloat32(File f, float[][] m) throws IOException {
-        int rows = m.length;
-        int cols = m[0].length;
-        for (int i = 1; i < rows; ++i)
-            if (m[i].length != cols) throw new IllegalArgumentException("Jagged array not supported");
-
-        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f)))) {
-            out.writeBytes("\u0093NUMPY");
-            out.writeByte(0x01);
-            out.writeByte(0x00);
-
-            String header = "{'descr': '<f4', 'fortran_order': False, 'shape': (" +
-                    rows + (rows == 1 ? "," : "," + cols) + "), }";
-            int base = 12; // 10 magic+ver + 2 length
-            int headerLen = header.getBytes(StandardCharsets.US_ASCII).length;
-            int padLen = (16 - ((base + headerLen) % 16)) % 16;
-            int totalHeader = headerLen + padLen;
-
-            out.writeShort(Short.reverseBytes((short) totalHeader));
-            out.write(header.getBytes(StandardCharsets.US_ASCII));
-            for (int i = 0; i < padLen; ++i) out.writeByte(' ');
-
-            for (int r = 0; r < rows; ++r)
-                for (int c = 0; c < cols; ++c)
-                    out.writeInt(Integer.reverseBytes(Float.floatToRawIntBits(m[r][c])));
-            out.flush();
-        }
-    }
-
     // === NEW: validators ===
     private static void validateVector(float[] v, String tag) throws IOException {
         if (v == null || v.length == 0) throw new IOException(tag + " empty");
@@ -107,48 +100,75 @@ public final class NpyUtil {
         }
     }
 
-    public static void saveMatrixFloat32Atomic(File f, float[][] m) throws IOException {
-        saveArrayFloat32Atomic(f, m);
-    }
-
     private NpyUtil() {}
 
+    // === plain saves: write in place, no rename ===
     public static void saveVectorFloat32(File f, float[] v) throws IOException {
-        saveArrayFloat32(f, new float[][]{v});
+        saveArrayFloat32(f, new float[][]{v}, Durability.NONE);
+    }
+
+    public static void saveVectorFloat32(File f, float[] v, Durability d) throws IOException {
+        saveArrayFloat32(f, new float[][]{v}, d);
     }
 
     public static void saveMatrixFloat32(File f, float[][] m) throws IOException {
-        saveArrayFloat32(f, m);
+        saveArrayFloat32(f, m, Durability.NONE);
+    }
+
+    public static void saveMatrixFloat32(File f, float[][] m, Durability d) throws IOException {
+        saveArrayFloat32(f, m, d);
     }
 
-    private static void saveArrayFloat32(File f, float[][] m) throws IOException {
-        // shape: (rows, cols) ; rows may be 1 for vector
+    private static void saveArrayFloat32(File f, float[][] m, Durability d) throws IOException {
+        writeFully(f, encode(m), d);
+        if (d == Durability.FILE_AND_DIR) syncDir(f.getParentFile());
+    }
+
+    /**
+     * Whole file (v1.0 header + payload) as one little-endian buffer, ready for a single write.
+     * Shape is always (rows, cols); a vector is saved as one row. Readers accept both 1-D and [1,D].
+     */
+    static ByteBuffer encode(float[][] m) {
         int rows = m.length;
         int cols = m[0].length;
         for (int i = 1; i < rows; ++i)
             if (m[i].length != cols) throw new IllegalArgumentException("Jagged array not supported");
 
-        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f)))) {
-            out.writeBytes("\u0093NUMPY"); // magic (0x93,'NUMPY')
-            out.writeByte(0x01); // major
-            out.writeByte(0x00); // minor
-
-            String header = "{'descr': '<f4', 'fortran_order': False, 'shape': (" +
-                    rows + (rows == 1 ? "," : "") + (cols == 0 ? "" : "," + cols) + "), }";
-            // npy v1.0: 10-byte preamble, then 2-byte header-len little endian, then padded header to 16-byte alignment
-            int base = 10 + 2;
-            int headerLen = header.getBytes(StandardCharsets.US_ASCII).length;
-            int padLen = (16 - ((base + headerLen) % 16)) % 16;
-            int totalHeader = headerLen + padLen;
+        String header = "{'descr': '<f4', 'fortran_order': False, 'shape': (" + rows + ", " + cols + "), }";
+        // npy v1.0: 10-byte preamble (magic + version + 2-byte header-len LE), header padded to 16-byte alignment
+        int base = 10;
+        int headerLen = header.length() + 1; // + '\n'
+        int padLen = (16 - ((base + headerLen) % 16)) % 16;
+        int totalHeader = headerLen + padLen;
+
+        ByteBuffer bb = ByteBuffer.allocate(base + totalHeader + rows * cols * 4).order(ByteOrder.LITTLE_ENDIAN);
+        bb.put((byte) 0x93).put("NUMPY".getBytes(StandardCharsets.US_ASCII));
+        bb.put((byte) 0x01).put((byte) 0x00);
+        bb.putShort((short) totalHeader);
+        bb.put(header.getBytes(StandardCharsets.US_ASCII));
+        for (int i = 0; i < padLen; ++i) bb.put((byte) ' ');
+        bb.put((byte) '\n');
+
+        FloatBuffer fb = bb.asFloatBuffer();
+        for (float[] row : m) fb.put(row);
+        bb.rewind();
+        return bb;
+    }
 
-            out.writeShort(Short.reverseBytes((short) totalHeader));
-            out.write(header.getBytes(StandardCharsets.US_ASCII));
-            for (int i = 0; i < padLen; ++i) out.writeByte(' ');
+    private static void writeFully(File f, ByteBuffer bb, Durability d) throws IOException {
+        try (FileOutputStream fos = new FileOutputStream(f)) {
+            FileChannel ch = fos.getChannel();
+            while (bb.hasRemaining()) ch.write(bb);
+            if (d != Durability.NONE) ch.force(false); // data (+ size), not timestamps
+        }
+    }
 
-            // data
-            for (int r = 0; r < rows; ++r)
-                for (int c = 0; c < cols; ++c)
-                    out.writeInt(Integer.reverseBytes(Float.floatToRawIntBits(m[r][c])));
+    private static void syncDir(File dir) {
+        if (dir == null) return;
+        try (FileChannel ch = FileChannel.open(dir.toPath(), java.nio.file.StandardOpenOption.READ)) {
+            ch.force(true);
+        } catch (IOException e) {
+            Log.w(TAG, "dir fsync not supported for " + dir + ": " + e);
         }
     }
 
@@ -170,45 +190,171 @@ public final class NpyUtil {
         return mean;
     }
 
-    /** Load float32 2D from .npy (v1); throws for unsupported headers. */
+    /**
+     * Load a 2D (or 1D as one row) float matrix from .npy v1/v2/v3, '<f4' or '<f2', C order.
+     * The payload is bulk-read (mapped when large) into a little-endian buffer and copied row by row.
+     */
     public static float[][] loadMatrixFloat32(File f) throws IOException {
         if (f.length() < 64) throw new IOException("npy too small: " + f.length() + " bytes");
-        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)))) {
-            byte[] magic = new byte[6];
-            in.readFully(magic);
-            if (!new String(magic, StandardCharsets.ISO_8859_1).equals("\u0093NUMPY"))
-                throw new IOException("Not a .npy file");
-            int major = in.readUnsignedByte();
-            int minor = in.readUnsignedByte();
-            if (!(major == 1 && minor == 0)) throw new IOException("Only .npy v1.0 supported");
-
-            int hlen = Short.reverseBytes(in.readShort()) & 0xFFFF;
-            byte[] hdr = new byte[hlen];
-            in.readFully(hdr);
-            String header = new String(hdr, StandardCharsets.US_ASCII).trim();
-
-            if (!header.contains("'descr': '<f4'") || !header.contains("'fortran_order': False"))
-                throw new IOException("Only little-endian float32, C-order supported");
-
-            int[] shape = parseShape(header);
-            int rows, cols;
-            if (shape.length == 1) { rows = 1; cols = shape[0]; }
-            else if (shape.length == 2) { rows = shape[0]; cols = shape[1]; }
-            else throw new IOException("Unsupported shape: " + Arrays.toString(shape));
-
-            float[][] out = new float[rows][cols];
-            for (int r = 0; r < rows; ++r) {
-                for (int c = 0; c < cols; ++c) {
-                    int bits = Integer.reverseBytes(in.readInt());
-                    out[r][c] = Float.intBitsToFloat(bits);
+        try (FileInputStream fis = new FileInputStream(f)) {
+            FileChannel ch = fis.getChannel();
+            Header h = readHeader(ch);
+            ByteBuffer bb = payload(ch, h, h.dataBytes() >= MMAP_MIN_BYTES);
+            float[][] out = new float[h.rows][h.cols];
+            if (h.halfPrecision) {
+                ShortBuffer sb = bb.asShortBuffer();
+                for (int r = 0; r < h.rows; ++r) {
+                    float[] row = out[r];
+                    for (int c = 0; c < h.cols; ++c) row[c] = halfToFloat(sb.get());
                 }
+            } else {
+                FloatBuffer fb = bb.asFloatBuffer();
+                for (int r = 0; r < h.rows; ++r) fb.get(out[r]);
             }
             return out;
-        } catch (EOFException eof) {
-            throw new IOException("npy truncated (EOF)", eof);
         }
     }
 
+    /** Zero-copy view of a float32 .npy: the payload mapped read-only, row-major rows x cols. */
+    public static final class MappedMatrix {
+        public final int rows;
+        public final int cols;
+        public final FloatBuffer data;
+
+        MappedMatrix(int rows, int cols, FloatBuffer data) {
+            this.rows = rows;
+            this.cols = cols;
+            this.data = data;
+        }
+
+        /** Copy row r into dst[0, cols). */
+        public void row(int r, float[] dst) {
+            FloatBuffer d = data.duplicate();
+            d.position(r * cols);
+            d.get(dst, 0, cols);
+        }
+    }
+
+    /**
+     * Map a '<f4' .npy without copying it onto the heap (large cohort / cluster files). The mapping
+     * stays valid after the file is closed or replaced by an atomic rename. '<f2' files need a
+     * conversion: use {@link #loadMatrixFloat32}.
+     */
+    public static MappedMatrix mapMatrixFloat32(File f) throws IOException {
+        try (FileInputStream fis = new FileInputStream(f)) {
+            FileChannel ch = fis.getChannel();
+            Header h = readHeader(ch);
+            if (h.halfPrecision) throw new IOException("mapMatrixFloat32 needs '<f4', got '<f2': " + f);
+            FloatBuffer fb = payload(ch, h, true).asFloatBuffer().asReadOnlyBuffer();
+            return new MappedMatrix(h.rows, h.cols, fb);
+        }
+    }
+
+    // payloads at least this large are mapped instead of read into a heap buffer
+    private static final long MMAP_MIN_BYTES = 256 * 1024;
+
+    /** Parsed .npy header: shape as rows x cols, element type and where the payload starts. */
+    private static final class Header {
+        int rows, cols;
+        boolean halfPrecision;
+        long dataOffset;
+
+        long dataBytes() { return (long) rows * cols * (halfPrecision ? 2 : 4); }
+    }
+
+    private static Header readHeader(FileChannel ch) throws IOException {
+        ByteBuffer pre = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(ch, pre, 0);
+        if (!new String(pre.array(), 0, 6, StandardCharsets.ISO_8859_1).equals("\u0093NUMPY"))
+            throw new IOException("Not a .npy file");
+        int major = pre.get(6) & 0xFF;
+        long hlen, hstart;
+        if (major == 1) {
+            hlen = pre.getShort(8) & 0xFFFF;
+            hstart = 10;
+        } else if (major == 2 || major == 3) {
+            hlen = pre.getInt(8) & 0xFFFFFFFFL;
+            hstart = 12;
+        } else {
+            throw new IOException("Unsupported .npy version " + major + "." + (pre.get(7) & 0xFF));
+        }
+        if (hstart + hlen > ch.size()) throw new IOException("npy truncated (header)");
+        ByteBuffer hb = ByteBuffer.allocate((int) hlen);
+        readFully(ch, hb, hstart);
+        // v3 allows UTF-8 in the header dict; v1/v2 are latin-1 (ASCII in practice)
+        String header = new String(hb.array(), major == 3 ? StandardCharsets.UTF_8 : StandardCharsets.ISO_8859_1).trim();
+
+        if (!header.contains("'fortran_order': False"))
+            throw new IOException("Only C-order supported");
+        String descr = parseDescr(header);
+        Header h = new Header();
+        if (descr.equals("<f4")) h.halfPrecision = false;
+        else if (descr.equals("<f2")) h.halfPrecision = true;
+        else throw new IOException("Only little-endian float32/float16 supported, got '" + descr + "'");
+
+        int[] shape = parseShape(header);
+        int elem = h.halfPrecision ? 2 : 4;
+        long avail = ch.size() - (hstart + hlen);
+        if (shape.length == 1 && shape[0] == 1 && avail > elem && avail % elem == 0) {
+            // older atomic writer stored a [1,D] row as shape (1,): take D from the payload size
+            shape = new int[]{1, (int) (avail / elem)};
+            Log.w(TAG, "npy shape (1,) with " + avail / elem + " values; reading as [1," + avail / elem + "]");
+        }
+        if (shape.length == 1) { h.rows = 1; h.cols = shape[0]; }
+        else if (shape.length == 2) { h.rows = shape[0]; h.cols = shape[1]; }
+        else throw new IOException("Unsupported shape: " + Arrays.toString(shape));
+
+        h.dataOffset = hstart + hlen;
+        if (h.dataBytes() > Integer.MAX_VALUE) throw new IOException("npy payload too large: " + h.dataBytes() + " bytes");
+        if (h.dataOffset + h.dataBytes() > ch.size()) throw new IOException("npy truncated (EOF)");
+        return h;
+    }
+
+    /** Payload as a little-endian buffer positioned at 0: mapped read-only, or bulk-read onto the heap. */
+    private static ByteBuffer payload(FileChannel ch, Header h, boolean map) throws IOException {
+        int n = (int) h.dataBytes();
+        ByteBuffer bb;
+        if (map && n > 0) {
+            bb = ch.map(FileChannel.MapMode.READ_ONLY, h.dataOffset, n);
+        } else {
+            bb = ByteBuffer.allocate(n);
+            readFully(ch, bb, h.dataOffset);
+            bb.flip();
+        }
+        return bb.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static void readFully(FileChannel ch, ByteBuffer b, long pos) throws IOException {
+        while (b.hasRemaining()) {
+            int n = ch.read(b, pos);
+            if (n < 0) throw new IOException("npy truncated (EOF)");
+            pos += n;
+        }
+    }
+
+    private static String parseDescr(String header) throws IOException {
+        int i = header.indexOf("'descr'");
+        if (i < 0) throw new IOException("descr not found");
+        int q1 = header.indexOf('\'', header.indexOf(':', i));
+        int q2 = header.indexOf('\'', q1 + 1);
+        if (q1 < 0 || q2 < 0) throw new IOException("bad descr");
+        return header.substring(q1 + 1, q2);
+    }
+
+    /** IEEE 754 binary16 → float32 (exact; subnormals, inf and NaN included). */
+    static float halfToFloat(short half) {
+        int bits = half & 0xFFFF;
+        int sign = (bits & 0x8000) << 16;
+        int exp = (bits >>> 10) & 0x1F;
+        int mant = bits & 0x3FF;
+        if (exp == 0) {
+            float v = mant * (1f / (1 << 24)); // subnormal (or zero): mant * 2^-24
+            return sign != 0 ? -v : v;
+        }
+        if (exp == 0x1F) return Float.intBitsToFloat(sign | 0x7F800000 | (mant << 13));
+        return Float.intBitsToFloat(sign | ((exp + 112) << 23) | (mant << 13));
+    }
+
     private static int[] parseShape(String header) throws IOException {
         int i = header.indexOf("'shape':");
         if (i < 0) throw new IOException("shape not found");
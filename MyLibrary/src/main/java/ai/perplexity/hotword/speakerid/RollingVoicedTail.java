@@ -0,0 +1,157 @@
+package ai.perplexity.hotword.speakerid;
+
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Incremental VAD cursor for repeated "voiced tail of a rolling buffer" queries.
+ * VAD frames sit on a fixed grid of absolute sample positions (frame k = [k*chunk, (k+1)*chunk));
+ * each frame is scored once and its probability cached, so a call only runs the VAD on audio
+ * appended since the previous one and assembles the tail from cached decisions: O(new audio)
+ * instead of O(tailSec).
+ *
+ * Callers either {@link #append} just the new samples, or pass the whole rolling window to
+ * {@link #extract(short[])}, which finds how far it moved by matching its overlap with the
+ * samples seen last time (no match → resync, only the tail is scored). The trailing partial frame
+ * is not scored; it is kept when the last complete frame was voiced.
+ * Not thread-safe.
+ */
+final class RollingVoicedTail {
+    private static final String TAG = "RollingVoicedTail";
+    private static final int MIN_OVERLAP = 320;   // samples that must match to trust an alignment
+    private static final int VERIFY = 1024;       // samples compared per alignment candidate
+
+    private final Vad vad;
+    private final int chunk;
+    private final int tailSamp;
+    private final float thr;
+
+    // audio [base, base + n) in absolute samples: the tail window plus the unscored partial frame
+    private short[] buf;
+    private int n = 0;
+    private long base = 0;
+    private long next = 0;            // first unscored frame index
+
+    // cached probabilities, ring indexed by frame % probs.length
+    private final float[] probs;
+    private final short[] block;
+
+    private long scoredFrames = 0;
+    private long reusedFrames = 0;
+    private long seenUpTo = 0;        // frames already returned by an earlier voicedTail()
+
+    RollingVoicedTail(Vad vad, int chunk, int tailSamp, float thr) {
+        this.vad = vad;
+        this.chunk = chunk;
+        this.tailSamp = tailSamp;
+        this.thr = thr;
+        this.probs = new float[tailSamp / chunk + 3];
+        this.block = new short[chunk];
+        this.buf = new short[tailSamp + 2 * chunk];
+    }
+
+    void reset() { n = 0; base = 0; next = 0; seenUpTo = 0; }
+
+    /** Whole rolling window: align with the previous call, score only the new part, return the voiced tail. */
+    short[] extract(short[] window) {
+        if (window == null || window.length == 0) return new short[0];
+        int added = appendedSince(window);
+        if (added < 0) {
+            // no overlap with what we saw: start over, skipping frames that can't reach the tail
+            reset();
+            int skip = Math.max(0, window.length - tailSamp) / chunk * chunk;
+            base = skip;
+            next = skip / chunk;
+            push(window, skip, window.length - skip);
+            Log.d(TAG, "resync: " + window.length + " samp");
+        } else if (added > 0) {
+            push(window, window.length - added, added);
+        }
+        return voicedTail();
+    }
+
+    /** Append new samples pcm[off, off+len) to the stream. */
+    void append(short[] pcm, int off, int len) {
+        if (pcm != null && len > 0) push(pcm, off, len);
+    }
+
+    /** Voiced samples of the last tailSec seconds seen so far. */
+    short[] voicedTail() {
+        long end = base + n;
+        long from = Math.max(base, end - tailSamp);
+        short[] out = new short[(int) (end - from)];
+        int m = 0;
+        boolean lastVoiced = next > 0 && probs[(int) ((next - 1) % probs.length)] > thr;
+        for (long k = from / chunk; k * chunk < end; k++) {
+            long s = Math.max(from, k * chunk), e = Math.min(end, (k + 1) * chunk);
+            boolean voiced;
+            if (k < next) {
+                voiced = probs[(int) (k % probs.length)] > thr;
+                if (k < seenUpTo) reusedFrames++;
+            } else {
+                voiced = lastVoiced; // trailing partial frame
+            }
+            if (voiced) {
+                System.arraycopy(buf, (int) (s - base), out, m, (int) (e - s));
+                m += (int) (e - s);
+            }
+        }
+        seenUpTo = next;
+        return Arrays.copyOf(out, m);
+    }
+
+    private void push(short[] pcm, int off, int len) {
+        ensure(n + len);
+        System.arraycopy(pcm, off, buf, n, len);
+        n += len;
+
+        // score every frame that became complete
+        long end = base + n;
+        while ((next + 1) * chunk <= end) {
+            System.arraycopy(buf, (int) (next * chunk - base), block, 0, chunk);
+            probs[(int) (next % probs.length)] = vad.feed(block);
+            next++;
+            scoredFrames++;
+        }
+
+        // keep the tail window (frame-aligned) plus the unscored partial frame
+        long keepFrom = Math.min(Math.max(0, end - tailSamp) / chunk * chunk, next * chunk);
+        if (keepFrom > base) {
+            int drop = (int) (keepFrom - base);
+            System.arraycopy(buf, drop, buf, 0, n - drop);
+            n -= drop;
+            base = keepFrom;
+        }
+    }
+
+    /**
+     * Samples appended at the end of window since the last call, or -1 if window does not continue
+     * the audio we hold. Smallest shift first, so a stationary window costs one comparison.
+     */
+    private int appendedSince(short[] w) {
+        if (n < MIN_OVERLAP) return -1;
+        int L = w.length;
+        short lastSeen = buf[n - 1];
+        for (int d = 0; L - d >= MIN_OVERLAP; d++) {
+            int q = L - d; // window[0, q) would end where our buffer ends
+            if (w[q - 1] != lastSeen) continue;
+            int m = Math.min(VERIFY, Math.min(q, n));
+            boolean ok = true;
+            for (int i = 1; i <= m && ok; i++) ok = (w[q - i] == buf[n - i]);
+            if (ok) return d;
+        }
+        return -1;
+    }
+
+    private void ensure(int cap) {
+        if (buf.length < cap) buf = Arrays.copyOf(buf, Math.max(cap, buf.length * 2));
+    }
+
+    String stats() {
+        long total = scoredFrames + reusedFrames;
+        return String.format(Locale.US, "[VADCACHE] scored=%d reused=%d (%.1f%% cached)",
+                scoredFrames, reusedFrames, total == 0 ? 0f : 100f * reusedFrames / total);
+    }
+}
@@ -6,12 +6,17 @@ import android.util.Log;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
 import java.nio.LongBuffer;
+import java.nio.ShortBuffer;
 import java.util.*;
 
 /**
  * Minimal ORT wrapper for NeMo Speakernet ONNX on Android.
  * Handles waveform or fbank features. For models logging "audio_signal [-1, 64, -1]"
  * we feed [1, 64, T] (mel-major) and optionally provide `length=[T]`.
+ * Waveform models may take float32 or int16 PCM; the latter is what tools/fuse_fbank_onnx.py
+ * emits when the Fbank front-end is fused into the graph (no Java-side feature extraction).
+ * Inference entry points are synchronized: the session, the tensor pool and maxBatch are shared
+ * by the engine's caller thread and its speculative worker.
  */
 public final class SpeakerEmbedderOrt implements AutoCloseable {
     private static final String TAG = "SpeakerEmbedderOrt";
@@ -26,6 +31,7 @@ public final class SpeakerEmbedderOrt implements AutoCloseable {
     private final boolean expectsFeatures;
     private final String lengthInputName;  // nullable
     private final boolean lengthIsInt64;
+    private final boolean waveformIsInt16; // raw PCM16 input (fused front-end models)
 
     // Feature layout detection
     // true  -> [B, 64, T]
@@ -36,21 +42,45 @@ public final class SpeakerEmbedderOrt implements AutoCloseable {
     private final Fbank fbank;
     private static final int SRC_MELS = 80;
     private static final int DST_MELS = 64;
+    private final int feedMels;           // 64 if the model declares it, else SRC_MELS
+    private final int requiredT;          // fixed frame count from the model shape, or -1
+
+    // Batched inference: items per session.run. A fixed batch dim (>0) is honoured exactly by
+    // padding the last micro-batch; a scalar/[1] length input forces batch=1.
+    private static final int MAX_BATCH = 16;
+    private final int fixedBatch;         // batch dim declared by the model, or -1
+    private int maxBatch;                 // drops to 1 if a batched run fails
+
+    // Pooled input tensors (data, length, waveform): Fbank writes the model layout straight into the
+    // slot's direct buffer and the same OnnxTensor is fed again on the next run with that shape.
+    private static final int POOL_SLOTS = 32;
+    private final TensorPool pool;
 
     // Cache output names once (constructor can throw OrtException)
     private final List<String> outputNames;
 
-    // Streaming buffer (PCM float32 in [-1,1])
-    private final ArrayList<Float> pcm = new ArrayList<>();
+    // Streaming buffer (PCM float32 in [-1,1]), growable primitive array
+    private float[] pcm = new float[16000];
+    private int pcmN = 0;
     private boolean finished = false;
 
     public SpeakerEmbedderOrt(OrtEnvironment env,
                               String speakernetOnnxPath,
                               OrtSession.SessionOptions opts,
                               int sampleRateHz) throws OrtException {
+        this(env, speakernetOnnxPath, opts, sampleRateHz, false);
+    }
+
+    /** fbankFastMath: table log + fused int16 window kernel in the Fbank front-end (see Fbank.Config). */
+    public SpeakerEmbedderOrt(OrtEnvironment env,
+                              String speakernetOnnxPath,
+                              OrtSession.SessionOptions opts,
+                              int sampleRateHz,
+                              boolean fbankFastMath) throws OrtException {
         this.env = env;
         this.sampleRate = sampleRateHz <= 0 ? 16000 : sampleRateHz;
         this.session = env.createSession(speakernetOnnxPath, opts);
+        this.pool = new TensorPool(env, "embedder", POOL_SLOTS);
 
         // Detect inputs
         String foundData = null;
@@ -59,6 +89,8 @@ public final class SpeakerEmbedderOrt implements AutoCloseable {
         String foundLen = null;
         boolean lenIsI64 = true;
         boolean tmpMelAtDim1 = false;
+        boolean foundI16 = false;
+        boolean lenBatched = false;
 
         Map<String, NodeInfo> inInfo = session.getInputInfo();
         for (Map.Entry<String, NodeInfo> e : inInfo.entrySet()) {
@@ -77,6 +109,7 @@ public final class SpeakerEmbedderOrt implements AutoCloseable {
                 if (sh.length == 0 || (sh.length == 1 && (sh[0] == 1 || sh[0] == -1))) {
                     foundLen = name;
                     lenIsI64 = (ti.type == OnnxJavaType.INT64);
+                    lenBatched = (sh.length == 1 && sh[0] == -1);
                     continue;
                 }
             }
@@ -93,11 +126,13 @@ public final class SpeakerEmbedderOrt implements AutoCloseable {
                 }
             }
 
-            // Fallback: waveform (rank 1/2)
-            if (foundData == null && ti.type == OnnxJavaType.FLOAT && (sh.length == 1 || sh.length == 2)) {
+            // Fallback: waveform (rank 1/2), float32 in [-1,1] or raw int16
+            if (foundData == null && (ti.type == OnnxJavaType.FLOAT || ti.type == OnnxJavaType.INT16)
+                    && (sh.length == 1 || sh.length == 2)) {
                 foundData = name;
                 foundShape = sh.clone();
                 foundFeatures = false;
+                foundI16 = (ti.type == OnnxJavaType.INT16);
             }
         }
 
@@ -109,20 +144,29 @@ public final class SpeakerEmbedderOrt implements AutoCloseable {
         this.expectsFeatures = foundFeatures;
         this.lengthInputName = foundLen;
         this.lengthIsInt64 = lenIsI64;
+        this.waveformIsInt16 = foundI16;
         this.melAtDim1 = tmpMelAtDim1;
+        this.feedMels = modelWants64Mels(dataInputShape) ? DST_MELS : SRC_MELS;
+        this.requiredT = requiredFramesFromShape(dataInputShape, melAtDim1);
+        this.fixedBatch = (dataInputShape.length == 3 && dataInputShape[0] > 0) ? (int) dataInputShape[0] : -1;
+        this.maxBatch = (fixedBatch > 0) ? fixedBatch
+                : (lengthInputName != null && !lenBatched) ? 1 : MAX_BATCH;
 
         if (expectsFeatures) {
-            this.fbank = new Fbank(new Fbank.Config(this.sampleRate));
+            this.fbank = new Fbank(new Fbank.Config(this.sampleRate, true, fbankFastMath));
 
             Log.i(TAG, "Speakernet expects features. dataInput=" + dataInputName +
                     " shape=" + Arrays.toString(dataInputShape) +
                     (melAtDim1 ? " layout=[B,64,T]" : " layout=[B,T,64]") +
                     (lengthInputName != null ? (" lengthInput=" + lengthInputName +
-                            " (" + (lengthIsInt64 ? "int64" : "int32") + ")") : ""));
+                            " (" + (lengthIsInt64 ? "int64" : "int32") + ")") : "") +
+                    " maxBatch=" + maxBatch);
         } else {
             this.fbank = null;
             Log.i(TAG, "Speakernet expects waveform. dataInput=" + dataInputName +
-                    " shape=" + Arrays.toString(dataInputShape));
+                    " shape=" + Arrays.toString(dataInputShape) +
+                    (waveformIsInt16 ? " type=int16" : " type=float") +
+                    (lengthInputName != null ? (" lengthInput=" + lengthInputName) : ""));
         }
 
         // Cache and log outputs once (constructor can throw OrtException)
@@ -138,108 +182,337 @@ public final class SpeakerEmbedderOrt implements AutoCloseable {
         }
     }
 
-    public void resetStream() { pcm.clear(); finished = false; }
+    public void resetStream() { pcmN = 0; finished = false; }
 
     /** Append PCM16 audio (short). */
     public void acceptWaveform(short[] i16) {
         if (i16 == null || i16.length == 0 || finished) return;
-        for (short s : i16) pcm.add(s / 32768.0f);
+        ensurePcm(pcmN + i16.length);
+        for (int i = 0; i < i16.length; i++) pcm[pcmN + i] = i16[i] / 32768.0f;
+        pcmN += i16.length;
     }
 
     /** Append PCM32 audio (float in [-1,1]). */
     public void acceptWaveform(float[] f32) {
         if (f32 == null || f32.length == 0 || finished) return;
-        for (float v : f32) {
-            float c = v;
+        ensurePcm(pcmN + f32.length);
+        for (int i = 0; i < f32.length; i++) {
+            float c = f32[i];
             if (c > 1f) c = 1f;
             if (c < -1f) c = -1f;
-            pcm.add(c);
+            pcm[pcmN + i] = c;
         }
+        pcmN += f32.length;
+    }
+
+    private void ensurePcm(int n) {
+        if (pcm.length < n) pcm = Arrays.copyOf(pcm, Math.max(n, pcm.length * 2));
     }
 
     public void inputFinished() { finished = true; }
 
+    /** True if the model consumes fbank features (so {@link FbankStream} views can be fed). */
+    public boolean expectsFeatures() { return expectsFeatures; }
+
+    /** New streaming front-end matching this embedder's Fbank config; null for waveform models. */
+    FbankStream newFbankStream() {
+        return (fbank != null) ? new FbankStream(fbank) : null;
+    }
+
+    /** Fbank with its own scratch, for {@link #embedOnce(Fbank, short[], int, int)} on another thread. */
+    Fbank newFbank() {
+        return (fbank != null) ? new Fbank(fbank.config()) : null;
+    }
+
+    /** {@link #embedOnce(short[], int, int)} computing features with fb instead of the shared Fbank. */
+    synchronized float[] embedOnce(Fbank fb, short[] i16, int off, int len) throws OrtException {
+        if (fb == null || !expectsFeatures) return embedOnce(i16, off, len);
+        if (i16 == null || len <= 0) return new float[0];
+        return embedWith(fb, i16, off, len);
+    }
+
     /** Run one forward pass; returns L2-normalized embedding or empty array on failure. */
-    public float[] computeEmbedding() throws OrtException {
-        if (pcm.isEmpty()) return new float[0];
+    public synchronized float[] computeEmbedding() throws OrtException {
+        if (pcmN == 0) return new float[0];
 
-        OnnxTensor inData = null;
-        OnnxTensor inLength = null;
-        OrtSession.Result out = null;
+        if (expectsFeatures) {
+            // PCM -> int16 -> FBANK [T,80]
+            short[] i16 = new short[pcmN];
+            for (int i = 0; i < pcmN; i++) {
+                float v = pcm[i];
+                if (v > 1f) v = 1f; if (v < -1f) v = -1f;
+                i16[i] = (short) Math.round(v * 32767f);
+            }
+            return embedWith(fbank, i16, 0, i16.length);
+        }
+
+        if (waveformIsInt16) {
+            TensorPool.Slot<ShortBuffer> in = pool.shorts("wave", waveShape(pcmN));
+            for (int i = 0; i < pcmN; i++) {
+                int v = Math.round(pcm[i] * 32768f);
+                in.buf.put(i, (short) Math.max(-32768, Math.min(32767, v)));
+            }
+            return runWaveform(in.tensor, pcmN);
+        }
+        TensorPool.Slot<FloatBuffer> in = pool.floats("wave", waveShape(pcmN));
+        in.buf.put(pcm, 0, pcmN).rewind();
+        return runWaveform(in.tensor, pcmN);
+    }
+
+    /**
+     * One-shot embedding of pcm[off, off+len) (PCM16). Bypasses the stream state entirely
+     * (resetStream/acceptWaveform buffers are untouched); no padding is applied here.
+     */
+    public synchronized float[] embedOnce(short[] i16, int off, int len) throws OrtException {
+        if (i16 == null || len <= 0) return new float[0];
+        if (off < 0 || off + len > i16.length) {
+            throw new IllegalArgumentException("pcm range out of bounds: " + off + "+" + len + " > " + i16.length);
+        }
+        if (expectsFeatures) return embedWith(fbank, i16, off, len);
 
+        if (waveformIsInt16) {
+            TensorPool.Slot<ShortBuffer> in = pool.shorts("wave", waveShape(len));
+            in.buf.put(i16, off, len).rewind();
+            return runWaveform(in.tensor, len);
+        }
+        TensorPool.Slot<FloatBuffer> in = pool.floats("wave", waveShape(len));
+        for (int i = 0; i < len; i++) in.buf.put(i, i16[off + i] / 32768.0f);
+        return runWaveform(in.tensor, len);
+    }
+
+    private long[] waveShape(int n) {
+        return (dataInputShape.length == 2) ? new long[]{1, n} : new long[]{n};
+    }
+
+    /** Waveform path: inData holds n samples ([1,n] or [n]) → session.run → L2-normalized embedding. */
+    private float[] runWaveform(OnnxTensor inData, int n) {
+        OrtSession.Result out = null;
         try {
-            // ----- Build input -----
-            if (expectsFeatures) {
-                // PCM -> int16 -> FBANK [T,80]
-                short[] i16 = new short[pcm.size()];
-                for (int i = 0; i < i16.length; i++) {
-                    float v = pcm.get(i);
-                    if (v > 1f) v = 1f; if (v < -1f) v = -1f;
-                    i16[i] = (short) Math.round(v * 32767f);
-                }
-                float[][] mels80 = fbank.compute(i16);
-                if (mels80.length == 0) return new float[0];
+            Map<String, OnnxTensor> feed = new HashMap<>();
+            feed.put(dataInputName, inData);
+            // Optional length input (valid samples)
+            if (lengthInputName != null) feed.put(lengthInputName, lengthTensor(new long[]{n}));
+            out = session.run(feed);
+            float[] emb = pickEmbeddingOutput(out);
+            if (emb.length == 0) return emb;
 
-                // If model wants 64 mels, take first 64 from 80
-                float[][] mels = modelWants64Mels(dataInputShape) ? takeFirstMels(mels80, DST_MELS) : mels80;
+            l2normInPlace(emb);
+            return emb;
+        } catch (Throwable t) {
+            Log.e(TAG, "computeEmbedding failed: " + t);
+            return new float[0];
+        } finally {
+            if (out != null) try { out.close(); } catch (Exception ignore) {}
+        }
+    }
 
-                final int Torig = mels.length;
-                final int Dmel  = (Torig > 0 ? mels[0].length : 0);
+    /**
+     * Embed frames [startFrame, startFrame+numFrames) of an already computed feature stream.
+     * Views shorter than minFrames are loop-padded in the frame domain first.
+     * Skips PCM buffering and Fbank entirely; stream state of this embedder is untouched.
+     */
+    synchronized float[] computeEmbeddingFromFeatures(FbankStream feats, int startFrame, int numFrames, int minFrames) throws OrtException {
+        if (!expectsFeatures || feats == null || numFrames <= 0) return new float[0];
+        if (startFrame < 0 || startFrame + numFrames > feats.frames()) {
+            throw new IllegalArgumentException("feature view out of range: " + startFrame + "+" + numFrames +
+                    " > " + feats.frames());
+        }
+        int Tfeed = feedFrames(numFrames, minFrames);
+        TensorPool.Slot<FloatBuffer> in = featureSlot(1, Tfeed);
+        Fbank.writeLayout(feats.data(), feats.nMels(), startFrame, numFrames, in.buf, feedMels, Tfeed, melAtDim1);
+        return runFeatures(in.tensor, numFrames, Tfeed);
+    }
 
-                // Fixed T?
-                int requiredT = requiredFramesFromShape(dataInputShape, melAtDim1);
-                int Tfeed = (requiredT > 0) ? requiredT : Torig;
-                if (requiredT > 0 && Torig != requiredT) {
-                    Log.w(TAG, String.format(Locale.US, "[EMB] adjusting frames %d→%d to match model", Torig, requiredT));
-                }
-                float[][] melsFeed = (Tfeed == Torig) ? mels : loopPadOrTrunc(mels, Tfeed);
-
-                // Pack to expected layout
-                float[] flat;
-                long[] feedShape;
-                if (melAtDim1) {
-                    // [1, 64, T]
-                    flat = new float[Dmel * Tfeed];
-                    int pos = 0;
-                    for (int mel = 0; mel < Dmel; mel++) {
-                        for (int t = 0; t < Tfeed; t++) flat[pos++] = melsFeed[t][mel];
-                    }
-                    feedShape = new long[]{1, Dmel, Tfeed};
-                } else {
-                    // [1, T, 64]
-                    flat = new float[Tfeed * Dmel];
-                    int pos = 0;
-                    for (int t = 0; t < Tfeed; t++) {
-                        System.arraycopy(melsFeed[t], 0, flat, pos, Dmel);
-                        pos += Dmel;
-                    }
-                    feedShape = new long[]{1, Tfeed, Dmel};
-                }
-                inData = OnnxTensor.createTensor(env, FloatBuffer.wrap(flat), feedShape);
-
-                // Optional length input (valid frames)
-                if (lengthInputName != null) {
-                    int valid = Math.min(Torig, Tfeed);
-                    if (lengthIsInt64) {
-                        inLength = OnnxTensor.createTensor(env, LongBuffer.wrap(new long[]{valid}), new long[]{1});
-                    } else {
-                        inLength = OnnxTensor.createTensor(env, IntBuffer.wrap(new int[]{valid}), new long[]{1});
-                    }
-                }
-            } else {
-                // Waveform: [1,T] or [T]
-                float[] audio = new float[pcm.size()];
-                for (int i = 0; i < pcm.size(); ++i) audio[i] = pcm.get(i);
-                if (dataInputShape.length == 2) {
-                    inData = OnnxTensor.createTensor(env, FloatBuffer.wrap(audio), new long[]{1, audio.length});
-                } else {
-                    inData = OnnxTensor.createTensor(env, FloatBuffer.wrap(audio), new long[]{audio.length});
+    /**
+     * Batched {@link #computeEmbeddingFromFeatures}: view i is frames [startFrames[i], +numFrames[i]).
+     * Returns one L2-normalized row per view (empty row on failure).
+     */
+    synchronized float[][] computeEmbeddingsFromFeatures(final FbankStream feats, final int[] startFrames,
+                                                         final int[] numFrames, int minFrames) {
+        int N = startFrames.length;
+        if (!expectsFeatures || feats == null || N == 0) return new float[N][0];
+        int[] Torig = new int[N];
+        for (int i = 0; i < N; i++) {
+            if (numFrames[i] <= 0 || startFrames[i] < 0 || startFrames[i] + numFrames[i] > feats.frames()) {
+                throw new IllegalArgumentException("feature view out of range: " + startFrames[i] + "+" +
+                        numFrames[i] + " > " + feats.frames());
+            }
+            Torig[i] = numFrames[i];
+        }
+        return runFeatureBatch(Torig, minFrames, new FeatureWriter() {
+            @Override public void write(int i, FloatBuffer dst, int outFrames) {
+                Fbank.writeLayout(feats.data(), feats.nMels(), startFrames[i], numFrames[i],
+                        dst, feedMels, outFrames, melAtDim1);
+            }
+        });
+    }
+
+    /**
+     * Batched {@link #embedOnce(short[], int, int)} over PCM16 views (no padding applied here).
+     * Feature models pack the windows into [N,D,T]/[N,T,D]; waveform models run one window at a time.
+     */
+    public synchronized float[][] embedBatch(final List<AudioView> windows) throws OrtException {
+        int N = windows.size();
+        if (!expectsFeatures) {
+            float[][] out = new float[N][];
+            for (int i = 0; i < N; i++) {
+                AudioView w = windows.get(i);
+                out[i] = (w == null) ? new float[0] : embedOnce(w.a, w.off, w.len);
+            }
+            return out;
+        }
+        int[] Torig = new int[N];
+        for (int i = 0; i < N; i++) {
+            AudioView w = windows.get(i);
+            Torig[i] = (w == null) ? 0 : fbank.numFrames(w.len);
+        }
+        return runFeatureBatch(Torig, 0, new FeatureWriter() {
+            @Override public void write(int i, FloatBuffer dst, int outFrames) {
+                AudioView w = windows.get(i);
+                fbank.computeInto(w.a, w.off, w.len, dst, feedMels, outFrames, melAtDim1);
+            }
+        });
+    }
+
+    /** Fills item i into dst in model layout, loop-padded to outFrames frames. */
+    private interface FeatureWriter {
+        void write(int item, FloatBuffer dst, int outFrames);
+    }
+
+    /**
+     * Shared batched feature path. Items are grouped so nothing changes vs. batch=1: without a length
+     * input only equal frame counts share a run; with one, items are padded to the longest in the
+     * micro-batch and the valid lengths go through the length input.
+     */
+    private float[][] runFeatureBatch(int[] Torig, int minFrames, FeatureWriter w) {
+        int N = Torig.length;
+        float[][] out = new float[N][];
+        int[] Tfeed = new int[N];
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < N; i++) {
+            if (Torig[i] <= 0) { out[i] = new float[0]; continue; }
+            Tfeed[i] = feedFrames(Torig[i], minFrames);
+            order.add(i);
+        }
+        // sort by feed length so groups/micro-batches carry little padding
+        final int[] tf = Tfeed;
+        Collections.sort(order, new Comparator<Integer>() {
+            @Override public int compare(Integer a, Integer b) { return Integer.compare(tf[a], tf[b]); }
+        });
+
+        int g = 0;
+        while (g < order.size()) {
+            int end = g + 1;
+            while (end < order.size() && end - g < maxBatch &&
+                    (lengthInputName != null || Tfeed[order.get(end)] == Tfeed[order.get(g)])) end++;
+            List<Integer> idx = order.subList(g, end);
+            float[][] rows = runFeatureMicroBatch(idx, Torig, Tfeed, w);
+            if (rows == null && idx.size() > 1 && fixedBatch <= 0) {
+                Log.w(TAG, "[EMB] batched run failed (B=" + idx.size() + "), falling back to batch=1");
+                maxBatch = 1;
+                rows = new float[idx.size()][];
+                for (int j = 0; j < idx.size(); j++) {
+                    float[][] one = runFeatureMicroBatch(idx.subList(j, j + 1), Torig, Tfeed, w);
+                    rows[j] = (one != null) ? one[0] : new float[0];
                 }
             }
+            for (int j = 0; j < idx.size(); j++) {
+                out[idx.get(j)] = (rows != null) ? rows[j] : new float[0];
+            }
+            g = end;
+        }
+        return out;
+    }
+
+    /** One session.run over items idx; null on failure. Pads to fixedBatch with copies of the last item. */
+    private float[][] runFeatureMicroBatch(List<Integer> idx, int[] Torig, int[] Tfeed, FeatureWriter w) {
+        int B = idx.size();
+        int Bfeed = (fixedBatch > 0) ? fixedBatch : B;
+        int Tb = 0;
+        for (int i : idx) Tb = Math.max(Tb, Tfeed[i]);
+        int per = feedMels * Tb;
+
+        OrtSession.Result out = null;
+        try {
+            TensorPool.Slot<FloatBuffer> in = featureSlot(Bfeed, Tb);
+            for (int j = 0; j < Bfeed; j++) {
+                in.buf.position(j * per);
+                w.write(idx.get(Math.min(j, B - 1)), in.buf.slice(), Tb);
+            }
+            in.buf.position(0);
+
+            Map<String, OnnxTensor> feed = new HashMap<>();
+            feed.put(dataInputName, in.tensor);
+            if (lengthInputName != null) {
+                long[] lens = new long[Bfeed];
+                for (int j = 0; j < Bfeed; j++) lens[j] = Math.min(Torig[idx.get(Math.min(j, B - 1))], Tb);
+                feed.put(lengthInputName, lengthTensor(lens));
+            }
+
+            out = session.run(feed);
+            float[][] rows = pickEmbeddingRows(out, Bfeed);
+            if (rows == null) return null;
+            float[][] res = new float[B][];
+            for (int j = 0; j < B; j++) { res[j] = rows[j]; l2normInPlace(res[j]); }
+            return res;
+        } catch (Throwable t) {
+            Log.e(TAG, "computeEmbedding (batch " + Bfeed + ") failed: " + t);
+            return null;
+        } finally {
+            if (out != null) try { out.close(); } catch (Exception ignore) {}
+        }
+    }
+
+    /** Pooled length tensor [n] (int64 or int32, as the model declares) holding lens. */
+    private OnnxTensor lengthTensor(long[] lens) throws OrtException {
+        long[] shape = new long[]{lens.length};
+        if (lengthIsInt64) {
+            TensorPool.Slot<LongBuffer> s = pool.longs("length", shape);
+            s.buf.put(lens).rewind();
+            return s.tensor;
+        }
+        TensorPool.Slot<IntBuffer> s = pool.ints("length", shape);
+        for (int i = 0; i < lens.length; i++) s.buf.put(i, (int) lens[i]);
+        return s.tensor;
+    }
+
+    /** Pooled data tensor [B,D,T] / [B,T,D]; position 0, limit = B*D*T. */
+    private TensorPool.Slot<FloatBuffer> featureSlot(int B, int T) throws OrtException {
+        return pool.floats("data", melAtDim1 ? new long[]{B, feedMels, T} : new long[]{B, T, feedMels});
+    }
+
+    /** Input-tensor pool hit rate and size, e.g. for battery/perf logs. */
+    public synchronized String tensorPoolStats() { return pool.stats(); }
+
+    private float[] embedWith(Fbank fb, short[] i16, int off, int len) throws OrtException {
+        int Torig = fb.numFrames(len);
+        if (Torig <= 0) return new float[0];
+        int Tfeed = feedFrames(Torig, 0);
+        TensorPool.Slot<FloatBuffer> in = featureSlot(1, Tfeed);
+        fb.computeInto(i16, off, len, in.buf, feedMels, Tfeed, melAtDim1);
+        return runFeatures(in.tensor, Torig, Tfeed);
+    }
+
+    /** Frames to feed: the model's fixed T if it has one, else max(Torig, minFrames) (loop-padded). */
+    private int feedFrames(int Torig, int minFrames) {
+        if (requiredT > 0) {
+            if (Torig != requiredT) {
+                Log.w(TAG, String.format(Locale.US, "[EMB] adjusting frames %d→%d to match model", Torig, requiredT));
+            }
+            return requiredT;
+        }
+        return Math.max(Torig, minFrames);
+    }
 
+    /** Shared feature path: inData already holds [1,D,T]/[1,T,D] features → session.run → L2-normalized embedding. */
+    private float[] runFeatures(OnnxTensor inData, int Torig, int Tfeed) {
+        OrtSession.Result out = null;
+
+        try {
             Map<String, OnnxTensor> feed = new HashMap<>();
             feed.put(dataInputName, inData);
-            if (inLength != null) feed.put(lengthInputName, inLength);
+            // Optional length input (valid frames)
+            if (lengthInputName != null) feed.put(lengthInputName, lengthTensor(new long[]{Math.min(Torig, Tfeed)}));
 
             // ----- Run & pick the right output (embedding), not logits -----
             out = session.run(feed);
@@ -253,8 +526,6 @@ public final class SpeakerEmbedderOrt implements AutoCloseable {
             return new float[0];
         } finally {
             if (out != null) try { out.close(); } catch (Exception ignore) {}
-            if (inData != null) try { inData.close(); } catch (Exception ignore) {}
-            if (inLength != null) try { inLength.close(); } catch (Exception ignore) {}
         }
     }
 
@@ -316,6 +587,57 @@ public final class SpeakerEmbedderOrt implements AutoCloseable {
         return best;
     }
 
+    /**
+     * Batched output selection: same preference as {@link #pickEmbeddingOutput}, over outputs that
+     * carry one [D] row per item ([B,D] or [B,T,D] mean over T). Null if none fits.
+     */
+    private float[][] pickEmbeddingRows(OrtSession.Result out, int B) {
+        if (B == 1) {
+            float[] one = pickEmbeddingOutput(out);
+            return (one.length == 0) ? null : new float[][]{one};
+        }
+        String[] prefer = new String[]{"embs", "emb", "spk", "speaker"};
+        float[][] best = null;
+        int bestScore = Integer.MAX_VALUE;
+        for (int i = 0; i < outputNames.size(); i++) {
+            float[][] rows = extractRows(out.get(i));
+            if (rows == null || rows.length != B) continue;
+            int D = rows[0].length;
+            if (D < 64 || D > 1024) continue;
+            String name = outputNames.get(i).toLowerCase(Locale.ROOT);
+            for (String p : prefer) if (name.contains(p)) return rows;
+            int score = Math.abs(D - 256);
+            if (score < bestScore) { best = rows; bestScore = score; }
+        }
+        if (best == null) Log.e(TAG, "pickEmbeddingRows: no usable [" + B + ",D] output found");
+        return best;
+    }
+
+    /** [B,D] → rows, [B,T,D] → per-item mean over T; null if unsupported. */
+    private static float[][] extractRows(OnnxValue val) {
+        try {
+            if (!(val instanceof OnnxTensor)) return null;
+            Object o = ((OnnxTensor) val).getValue();
+            if (o instanceof float[][]) return (float[][]) o;
+            if (o instanceof float[][][]) {
+                float[][][] a = (float[][][]) o;
+                float[][] rows = new float[a.length][];
+                for (int b = 0; b < a.length; b++) {
+                    if (a[b].length == 0) return null;
+                    int T = a[b].length, D = a[b][0].length;
+                    float[] mean = new float[D];
+                    for (int t = 0; t < T; t++) for (int d = 0; d < D; d++) mean[d] += a[b][t][d];
+                    for (int d = 0; d < D; d++) mean[d] /= T;
+                    rows[b] = mean;
+                }
+                return rows;
+            }
+        } catch (Throwable t) {
+            Log.w(TAG, "extractRows: " + t);
+        }
+        return null;
+    }
+
     /**
      * Convert an OnnxValue into a single [D] float vector:
      *   - float[]         -> [D]
@@ -372,37 +694,8 @@ public final class SpeakerEmbedderOrt implements AutoCloseable {
         return (T > 0) ? (int) T : -1;
     }
 
-    /** Take first K mel bins from [T, SRC_MELS] → [T, K]. */
-    private static float[][] takeFirstMels(float[][] src, int k) {
-        int T = src.length;
-        if (T == 0) return src;
-        int D = Math.min(k, src[0].length);
-        float[][] out = new float[T][D];
-        for (int t = 0; t < T; t++) System.arraycopy(src[t], 0, out[t], 0, D);
-        return out;
-    }
-
-    /** Loop-pad or truncate a [T, D] mel matrix to exactly Tdst frames. */
-    private static float[][] loopPadOrTrunc(float[][] src, int Tdst) {
-        int Torig = src.length;
-        int D = (Torig > 0) ? src[0].length : 0;
-        float[][] out = new float[Tdst][D];
-        if (Torig == 0 || D == 0) return out;
-
-        if (Torig >= Tdst) {
-            for (int t = 0; t < Tdst; t++) System.arraycopy(src[t], 0, out[t], 0, D);
-        } else {
-            int t = 0;
-            while (t < Tdst) {
-                int take = Math.min(Torig, Tdst - t);
-                for (int i = 0; i < take; i++) System.arraycopy(src[i], 0, out[t + i], 0, D);
-                t += take;
-            }
-        }
-        return out;
-    }
-
-    @Override public void close() {
+    @Override public synchronized void close() {
         try { session.close(); } catch (Exception ignore) {}
+        pool.close();
     }
 }
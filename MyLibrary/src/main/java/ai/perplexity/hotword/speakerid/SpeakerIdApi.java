@@ -1,6 +1,8 @@
 package ai.perplexity.hotword.speakerid;
 
+import android.content.ComponentCallbacks2;
 import android.content.Context;
+import android.content.res.Configuration;
 import android.net.Uri;
 import android.util.Log;
 import ai.onnxruntime.*;
@@ -22,10 +24,12 @@ public final class SpeakerIdApi implements AutoCloseable {
 
     private final SpeakerIdConfig cfg;
     private final Vad vad;
+    private RollingVoicedTail rollingTail = null; // cfg.rollingVadCache, created lazily
     private final SpeakerIdEngine engine;
     private final OrtEnvironment env;
     private final OrtSession.SessionOptions opts;
     private final Context appContext;
+    private final ComponentCallbacks2 backgroundFlush;
 
     // keep constructor as-is
     private SpeakerIdApi(Context ctx,
@@ -40,6 +44,15 @@ public final class SpeakerIdApi implements AutoCloseable {
         this.engine = engine;
         this.env = env;
         this.opts = opts;
+        // app moved to background: get pending adaptation writes to disk while we still run
+        this.backgroundFlush = new ComponentCallbacks2() {
+            @Override public void onTrimMemory(int level) {
+                if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) SpeakerIdApi.this.engine.flushPendingWrites(false);
+            }
+            @Override public void onConfigurationChanged(Configuration newConfig) {}
+            @Override public void onLowMemory() {}
+        };
+        appContext.registerComponentCallbacks(backgroundFlush);
     }
 
     // Standard create() with normal config
@@ -66,6 +79,8 @@ public final class SpeakerIdApi implements AutoCloseable {
         SpeakerIdConfig cfg = new SpeakerIdConfig();
         cfg.meanEmbNpy = SpeakerIdStorage.defaultMeanEmbFile(ctx);
         cfg.clusterNpy = SpeakerIdStorage.defaultClusterFile(ctx);
+        if (cfg.useProfileStore) cfg.profileStore = SpeakerIdStorage.defaultProfileStore(ctx);
+        if (cfg.onnxFrontEnd) p = SpeakerIdAssets.preferFused(ctx, p);
 
         // VAD (if available)
         Vad vad;
@@ -80,6 +95,7 @@ public final class SpeakerIdApi implements AutoCloseable {
             Log.w(TAG, "VAD init failed, proceeding without VAD: " + t);
             vad = new Vad() { @Override public float feed(short[] b){ return 1.0f; } };
         }
+        if (cfg.vadGate && vad instanceof VadAdapter) vad = new CascadedVad(vad, cfg);
 
         SpeakerIdEngine engine = new SpeakerIdEngine(env, opts, p.speakerOnnx, vad, cfg);
         return new SpeakerIdApi(ctx, cfg, vad, engine, env, opts);
@@ -89,6 +105,24 @@ public final class SpeakerIdApi implements AutoCloseable {
         return engine.embedOnce(oneSecondPcm); // L2-normalized
     }
 
+    /** embedOnce over pcm[off, off+len) without copying the range out first. */
+    public float[] embedOnce(short[] pcm, int off, int len) throws Exception {
+        return engine.embedOnce(pcm, off, len); // L2-normalized
+    }
+
+    /** Pooled ORT input tensors: hit rate for the embedder and (Silero) VAD sessions. */
+    public String tensorPoolStats() {
+        String s = engine.tensorPoolStats();
+        Vad v = (vad instanceof CascadedVad) ? ((CascadedVad) vad).inner() : vad;
+        if (v instanceof VadAdapter) s += " | " + ((VadAdapter) v).tensorPoolStats();
+        return s;
+    }
+
+    /** Fraction of VAD frames the cascaded gate answered without ONNX (cfg.vadGate); 0 when off. */
+    public float vadGateSkippedFraction() {
+        return (vad instanceof CascadedVad) ? ((CascadedVad) vad).skippedFraction() : 0f;
+    }
+
     // --------- NEW: create a WWD-tuned instance (separate storage) ----------
     public static SpeakerIdApi createWWD(Context ctx) throws OrtException {
         Log.i(TAG, "createWWD()");
@@ -114,6 +148,8 @@ public final class SpeakerIdApi implements AutoCloseable {
         // Use WWD-specific filenames so they don't clash with the regular profile
         cfg.meanEmbNpy = new File(ctx.getFilesDir(), "speaker_emb_wwd.npy");
         cfg.clusterNpy = new File(ctx.getFilesDir(), "speaker_emb_cluster_wwd.npy");
+        if (cfg.useProfileStore) cfg.profileStore = SpeakerIdStorage.defaultProfileStore(ctx);
+        if (cfg.onnxFrontEnd) p = SpeakerIdAssets.preferFused(ctx, p);
 
         Vad vad;
         try {
@@ -127,26 +163,38 @@ public final class SpeakerIdApi implements AutoCloseable {
             Log.w(TAG, "VAD init failed, proceeding without VAD: " + t);
             vad = new Vad() { @Override public float feed(short[] b){ return 1.0f; } };
         }
+        if (cfg.vadGate && vad instanceof VadAdapter) vad = new CascadedVad(vad, cfg);
 
         SpeakerIdEngine engine = new SpeakerIdEngine(env, opts, p.speakerOnnx, vad, cfg);
         return new SpeakerIdApi(ctx, cfg, vad, engine, env, opts);
     }
 
+    /** Persist pending adaptation updates now (blocking); also done on close() and app backgrounding. */
+    public void flushPendingWrites() {
+        engine.flushPendingWrites(true);
+    }
+
     // Update close():
     @Override public void close() {
+        try { appContext.unregisterComponentCallbacks(backgroundFlush); } catch (Throwable ignore) {}
+        synchronized (this) {
+            for (ExtCluster cm : extClusters.values()) cm.journal.close();
+        }
         try { if (engine != null) engine.close(); } catch (Throwable ignore) {}
         try { if (vad instanceof java.io.Closeable) ((java.io.Closeable) vad).close(); } catch (Throwable ignore) {}
     }
 
     // SpeakerIdApi.java (add public method)
     public void wipeAllTargetsAndReset() {
+        engine.resetTargetsInMemory(); // first: drops pending adaptation writes before the files go
+        engine.deleteStoredTargets();
         SpeakerIdStorage.wipeDefaults(appContext);
-        engine.resetTargetsInMemory();
         Log.i(TAG, "[RESET] Disk files deleted and engine state cleared. Ready to re-onboard.");
     }
 
     /** Return true if default mean/cluster exist (good for verification init flow). */
     public boolean initVerificationUsingDefaults(Context ctx) {
+        if (cfg.profileStore != null) return engine.hasStoredTargets();
         return SpeakerIdStorage.hasDefaultTargets(ctx);
     }
 
@@ -308,23 +356,17 @@ public final class SpeakerIdApi implements AutoCloseable {
     public static final class OnboardingStream {
         private final SpeakerIdEngine engine;
         private final SpeakerIdConfig cfg;
-        private final Vad vad;
 
-        // segmentation state (same as engine)
-        private enum State { IDLE, ACTIVE }
-        private State st = State.IDLE;
+        // segmentation (same segmenter as engine.segmentOffline: padded chunks, no grace window)
         private final int vadChunk;
-        private final int silenceAfterSamps;
-        private final java.util.Deque<short[]> preroll = new java.util.ArrayDeque<>();
-        private final ShortArray voiced = new ShortArray();
-        private int silence = 0;
+        private final StreamingSegmenter segmenter;
 
         private OnboardingResult done = null;
 
         private OnboardingStream(SpeakerIdEngine engine, SpeakerIdConfig cfg, Vad vad) {
-            this.engine = engine; this.cfg = cfg; this.vad = vad;
+            this.engine = engine; this.cfg = cfg;
             this.vadChunk = cfg.vadChunk;
-            this.silenceAfterSamps = (int)Math.round(cfg.silenceAfterSec * cfg.rateHz);
+            this.segmenter = new StreamingSegmenter(vad, cfg, true, false);
         }
 
         /** Feed a block (any length). Returns onboarding result when finished, else null. */
@@ -333,35 +375,9 @@ public final class SpeakerIdApi implements AutoCloseable {
             int i = 0;
             while (i < block.length) {
                 int take = Math.min(vadChunk, block.length - i);
-                short[] b = java.util.Arrays.copyOfRange(block, i, i + take); i += take;
-                if (b.length < vadChunk) b = padTo(b, vadChunk);
-                float p = vad.feed(b);
-
-                if (st == State.IDLE) {
-                    preroll.addLast(b);
-                    while (preroll.size() > cfg.prerollFrames) preroll.removeFirst();
-                    if (p >= cfg.onThr) {
-                        st = State.ACTIVE;
-                        for (short[] pr : preroll) voiced.append(pr);
-                        voiced.append(b);
-                        silence = 0;
-                    }
-                } else {
-                    if (p >= cfg.offThr) {
-                        voiced.append(b);
-                        silence = 0;
-                    } else {
-                        silence += vadChunk;
-                        if (silence >= silenceAfterSamps) {
-                            short[] seg = voiced.toArray();
-                            reset();
-                            if (seg.length >= secondsToSamps(cfg.minEmbedSec)) {
-                                done = engine.enrollFromUtterance(seg);
-                                return done;
-                            }
-                        }
-                    }
-                }
+                StreamingSegmenter.Event ev = segmenter.step(block, i, take);
+                i += take;
+                if (ev == StreamingSegmenter.Event.CLOSED && enrollClosedSegment()) return done;
             }
             return null;
         }
@@ -369,26 +385,22 @@ public final class SpeakerIdApi implements AutoCloseable {
         /** Call at end of stream to flush any active segment. */
         public OnboardingResult finish() throws Exception {
             if (done != null) return done;
-            if (st == State.ACTIVE) {
-                short[] seg = voiced.toArray();
-                reset();
-                if (seg.length >= secondsToSamps(cfg.minEmbedSec)) {
-                    done = engine.enrollFromUtterance(seg);
-                }
-            }
+            if (segmenter.flush()) enrollClosedSegment();
             return done;
         }
 
-        private void reset() {
-            st = State.IDLE; preroll.clear(); voiced.clear(); silence = 0;
+        /** Enroll from the segment just closed if it is long enough; the segmenter is rewound either way. */
+        private boolean enrollClosedSegment() throws Exception {
+            AudioView seg = segmenter.segment();
+            try {
+                if (seg.len < secondsToSamps(cfg.minEmbedSec)) return false;
+                done = engine.enrollFromUtterance(seg);
+                return true;
+            } finally {
+                segmenter.reset();
+            }
         }
 
-        // small utils
-        private static short[] padTo(short[] x, int n) {
-            short[] y = new short[n];
-            System.arraycopy(x, 0, y, 0, x.length);
-            return y;
-        }
         private int secondsToSamps(float s) { return (int)Math.round(s * cfg.rateHz); }
 
     }
@@ -430,6 +442,10 @@ public final class SpeakerIdApi implements AutoCloseable {
     public VerificationResult verifyStreamFinish() throws Exception {
         return engine.finishVerify();
     }
+    /** Provisional mid-utterance results for the push/mic/WAV verify paths (needs cfg.provisionalEverySec > 0). */
+    public void setProvisionalListener(SpeakerIdEngine.ProvisionalListener l) {
+        engine.setProvisionalListener(l);
+    }
 
     // ---------- Verification (WAV) ----------
     public VerificationResult verifyFromWav(File wav) throws Exception {
@@ -645,6 +661,7 @@ public final class SpeakerIdApi implements AutoCloseable {
     /** Check whatever files the instance is currently configured to use (regular or WWD). */
     public boolean initVerificationUsingCurrentConfig() {
         try {
+            if (cfg != null && cfg.profileStore != null) return engine.hasStoredTargets();
             return cfg != null
                     && cfg.meanEmbNpy != null && cfg.clusterNpy != null
                     && cfg.meanEmbNpy.exists() && cfg.clusterNpy.exists();
@@ -661,14 +678,33 @@ public final class SpeakerIdApi implements AutoCloseable {
         final int capacity;                      // desired #embeddings to keep (FIFO)
         final ArrayDeque<float[]> fifo = new ArrayDeque<>();
         float[] mean;                            // L2-normalized running mean
-        final File clusterFile;                  // KxD matrix for this cluster id
-        final File meanFile;                     // 1xD vector for this cluster id
+        final File clusterFile;                  // KxD snapshot for this cluster id
+        final File meanFile;                     // 1xD vector, written at compaction
+        final ExtClusterJournal journal;         // pushes since the snapshot (spk_cluster_<id>.log)
 
-        ExtCluster(int id, int cap, File dir) {
+        ExtCluster(int id, int cap, File dir, SpeakerProfileStore store) {
             this.id = id;
             this.capacity = Math.max(1, cap);
             this.clusterFile = new File(dir, "spk_cluster_" + id + ".npy");
             this.meanFile    = new File(dir, "spk_mean_"    + id + ".npy");
+            // with a profile store the snapshot is profile "spk_<id>"; the journal stays a file
+            this.journal = new ExtClusterJournal(clusterFile, meanFile, new File(dir, "spk_cluster_" + id + ".log"),
+                    store, "spk_" + id);
+        }
+
+        /** Snapshot + journal → fifo; the mean is derived from the rows (stored mean only if there are none). */
+        void load() throws IOException {
+            fifo.clear();
+            for (float[] r : journal.load(capacity)) {
+                l2normInPlaceLocal(r);
+                fifo.addLast(r);
+            }
+            if (!fifo.isEmpty()) {
+                mean = meanOfRowsLocal(fifo.toArray(new float[0][]));
+            } else {
+                mean = journal.loadSnapshotMean();
+            }
+            if (mean != null) l2normInPlaceLocal(mean);
         }
     }
 
@@ -678,37 +714,11 @@ public final class SpeakerIdApi implements AutoCloseable {
     /** Create (or resume) a cluster that will hold up to numOfEmb embeddings, persisted per id. */
     public synchronized int initCluster(int numOfEmb) {
         int id = nextExtClusterId.getAndIncrement();
-        ExtCluster cm = new ExtCluster(id, numOfEmb, appContext.getFilesDir());
+        ExtCluster cm = new ExtCluster(id, numOfEmb, appContext.getFilesDir(), engine.profileStore());
 
         // If files exist, load them so sessions survive app restarts
         try {
-            if (cm.clusterFile.exists()) {
-                float[][] cl = NpyUtil.loadMatrixFloat32(cm.clusterFile);
-                if (cl != null && cl.length > 0) {
-                    for (float[] r : cl) {
-                        l2normInPlaceLocal(r);
-                        cm.fifo.addLast(r);
-                    }
-                }
-            }
-            if (cm.meanFile.exists()) {
-                float[] m = null;
-                try { m = NpyUtil.loadVectorFloat32(cm.meanFile); } catch (Throwable ignore) {}
-                if (m == null) {
-                    try {
-                        float[][] mtx = NpyUtil.loadMatrixFloat32(cm.meanFile);
-                        if (mtx != null && mtx.length == 1 && mtx[0] != null) m = java.util.Arrays.copyOf(mtx[0], mtx[0].length);
-                    } catch (Throwable ignore) {}
-                }
-                if (m != null) l2normInPlaceLocal(m);
-                cm.mean = m;
-            }
-
-            // If mean is missing but we have fifo, rebuild mean
-            if (cm.mean == null && !cm.fifo.isEmpty()) {
-                cm.mean = meanOfRowsLocal(cm.fifo.toArray(new float[0][]));
-                l2normInPlaceLocal(cm.mean);
-            }
+            cm.load();
         } catch (Throwable t) {
             // Non-fatal: start empty if load fails
             cm.fifo.clear();
@@ -731,6 +741,14 @@ public final class SpeakerIdApi implements AutoCloseable {
 
         if (pcm == null || pcm.length == 0) return new short[0];
 
+        // Rolling buffer: only the audio appended since the last call goes through the VAD
+        if (cfg.rollingVadCache) {
+            synchronized (this) {
+                if (rollingTail == null) rollingTail = new RollingVoicedTail(vad, vadChunk, tailSamp, thr);
+                return rollingTail.extract(pcm);
+            }
+        }
+
         // Cut to last tailSec seconds (like python tail_last_sec_i16)
         int start = Math.max(0, pcm.length - tailSamp);
         int end   = pcm.length;
@@ -761,6 +779,14 @@ public final class SpeakerIdApi implements AutoCloseable {
     }
 
 
+    /** Forget cached VAD decisions of the rolling buffer (e.g. when the audio source restarts). */
+    public synchronized void resetRollingVad() {
+        if (rollingTail != null) {
+            Log.i(TAG, rollingTail.stats());
+            rollingTail.reset();
+        }
+    }
+
     /** Optional convenience if RN sends PCM16LE bytes. */
     public short[] extractLast1sVoiced(byte[] pcm16le) {
         if (pcm16le == null) return new short[0];
@@ -787,7 +813,7 @@ public final class SpeakerIdApi implements AutoCloseable {
      * - use LAST 1.0 s (preferred),
      * - if shorter than 1.0 s, duplicate frames to pad up to exactly 1.0 s,
      * - FIFO if capacity exceeded,
-     * - persist cluster + mean to disk every call.
+     * - append the embedding to the cluster's journal every call (snapshot rewritten on compaction).
      */
     public synchronized void createAndPushEmbeddingsToCluster(int clusterId, short[] pcm, int length) {
         ExtCluster cm = extClusters.get(clusterId);
@@ -807,7 +833,7 @@ public final class SpeakerIdApi implements AutoCloseable {
             l2normInPlaceLocal(cm.mean);
 
             // Persist to disk
-            persistExtCluster(cm);
+            persistExtCluster(cm, emb);
         } catch (Throwable e) {
             // Spec says: never fail. As a last resort, embed 1s of zeros to keep consistency.
             try {
@@ -817,7 +843,7 @@ public final class SpeakerIdApi implements AutoCloseable {
                 cm.fifo.addLast(embZ);
                 cm.mean = meanOfRowsLocal(cm.fifo.toArray(new float[0][]));
                 l2normInPlaceLocal(cm.mean);
-                persistExtCluster(cm);
+                persistExtCluster(cm, embZ);
             } catch (Throwable ignore) {
                 // If even zeros fail, swallow to obey "never fail" contract.
             }
@@ -835,23 +861,8 @@ public final class SpeakerIdApi implements AutoCloseable {
         if (cm == null) return Float.NEGATIVE_INFINITY;
 
         // Lazy load from disk if memory empty but files exist (e.g., app restarted)
-        if (cm.fifo.isEmpty() && cm.clusterFile.exists()) {
-            try {
-                float[][] cl = NpyUtil.loadMatrixFloat32(cm.clusterFile);
-                if (cl != null && cl.length > 0) {
-                    for (float[] r : cl) { l2normInPlaceLocal(r); cm.fifo.addLast(r); }
-                }
-                if (cm.mean == null && cm.meanFile.exists()) {
-                    float[] m = null;
-                    try { m = NpyUtil.loadVectorFloat32(cm.meanFile); } catch (Throwable ignore) {}
-                    if (m == null) {
-                        try { float[][] mtx = NpyUtil.loadMatrixFloat32(cm.meanFile);
-                            if (mtx != null && mtx.length == 1 && mtx[0] != null) m = java.util.Arrays.copyOf(mtx[0], mtx[0].length);
-                        } catch (Throwable ignore) {}
-                    }
-                    if (m != null) { l2normInPlaceLocal(m); cm.mean = m; }
-                }
-            } catch (Throwable ignore) {}
+        if (cm.fifo.isEmpty()) {
+            try { cm.load(); } catch (Throwable ignore) {}
         }
         if (cm.fifo.isEmpty() && cm.mean == null) return Float.NEGATIVE_INFINITY;
 
@@ -872,19 +883,10 @@ public final class SpeakerIdApi implements AutoCloseable {
         }
     }
 
-    private void persistExtCluster(ExtCluster cm) throws IOException {
-        // Save cluster (KxD)
-        float[][] cl = cm.fifo.toArray(new float[0][]);
-        try {
-            NpyUtil.saveMatrixFloat32Atomic(cm.clusterFile, cl);
-        } catch (NoSuchMethodError | UnsupportedOperationException ignore) {
-            NpyUtil.saveMatrixFloat32(cm.clusterFile, cl);
-        }
-        // Save mean as 1-D vector for fast reload
-        try {
-            NpyUtil.saveVectorFloat32Atomic(cm.meanFile, cm.mean);
-        } catch (NoSuchMethodError | UnsupportedOperationException ignore) {
-            NpyUtil.saveVectorFloat32(cm.meanFile, cm.mean);
+    /** Journal the pushed embedding (O(D) append); rewrite snapshot + mean only when compaction is due. */
+    private void persistExtCluster(ExtCluster cm, float[] pushed) throws IOException {
+        if (!cm.journal.append(pushed) || cm.journal.needsCompaction(cm.capacity)) {
+            cm.journal.compact(cm.fifo.toArray(new float[0][]), cm.mean);
         }
     }
 
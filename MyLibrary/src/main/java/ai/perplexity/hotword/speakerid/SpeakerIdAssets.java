@@ -9,6 +9,9 @@ import java.util.*;
 final class SpeakerIdAssets {
     private static final String TAG = "SpeakerIdAssets";
 
+    /** Speakernet with the Fbank front-end merged in (tools/fuse_fbank_onnx.py); raw PCM input. */
+    static final String FUSED_SPEAKERNET = "speakernet_fused_fbank.onnx";
+
     static final class Paths {
         final String speakerOnnx;  // nemo_en_speakerverification_speakernet.onnx
         final String vadOnnx;      // silero_vad.onnx
@@ -146,4 +149,16 @@ final class SpeakerIdAssets {
         Log.i(TAG, "resolveModels: DONE speakerOnnx=" + speakernet + " , vadOnnx=" + vad);
         return new Paths(speakernet, vad);
     }
+
+    /** Swap in the fused front-end model if it ships as an asset; otherwise keep p. */
+    static Paths preferFused(Context ctx, Paths p) {
+        if (!assetExists(ctx, FUSED_SPEAKERNET)) {
+            Log.w(TAG, "preferFused: " + FUSED_SPEAKERNET + " not in assets, using " + p.speakerOnnx);
+            return p;
+        }
+        String fused = copyAssetToFiles(ctx, FUSED_SPEAKERNET, "speakerid");
+        if (fused == null) return p;
+        Log.i(TAG, "preferFused: using " + fused);
+        return new Paths(fused, p.vadOnnx);
+    }
 }
@@ -10,10 +10,39 @@ public final class SpeakerIdConfig {
     public float offThr            = 0.30f;
     public float silenceAfterSec   = 2.0f;
     public int   prerollFrames     = 2;
+
+    /**
+     * Cascaded VAD (CascadedVad): pure-Java energy/ZCR/flatness gate answers obviously silent frames
+     * with p=0 without running Silero. Frames below vadGateFloorDbfs are silent; quieter than
+     * vadGateQuietDbfs with ZCR >= vadGateNoiseZcr and flatness >= vadGateNoiseFlatness count as noise.
+     * vadGateHangover frames after a non-silent one always reach the model.
+     */
+    public boolean vadGate           = false;
+    public float vadGateFloorDbfs    = -55f;
+    public float vadGateQuietDbfs    = -40f;
+    public float vadGateNoiseZcr     = 0.25f;
+    public float vadGateNoiseFlatness = 0.40f;
+    public int   vadGateHangover     = 4;     // 320 ms at 80 ms frames
     // SpeakerIdConfig.java  (add fields with sensible defaults)
     public float  onboardVoicedTargetSec = 3.0f; // need this much voiced audio in ONE segment
     public boolean debugVadFrames = true;       // spammy logs per VAD frame
     public float tailSec = 1.5f;  // python --tail-sec default
+    /**
+     * extractLast1sVoiced on a rolling buffer: cache per-frame VAD decisions by absolute sample
+     * position and only run the VAD on newly appended audio (frames on a fixed 80 ms grid).
+     */
+    public boolean rollingVadCache = false;
+
+    /** What the streaming segmenter does when a segment reaches maxSegmentSec. */
+    public enum SegmentOverflow {
+        /** Close the segment at the limit, as if silence had followed. */
+        FINALIZE,
+        /** Keep the first maxSegmentSec of voiced audio, drop the rest until silence closes the segment. */
+        TRUNCATE
+    }
+    /** Segment buffers are preallocated for this much voiced audio (+ preroll). */
+    public float maxSegmentSec = 30f;
+    public SegmentOverflow segmentOverflow = SegmentOverflow.FINALIZE;
 
     public float sliceSec          = 0.50f;
     public Float sliceHopSec       = null;  // null -> hop=slice
@@ -23,6 +52,45 @@ public final class SpeakerIdConfig {
     public float[] flexSizesSec    = new float[]{0.25f, 0.50f, 0.75f, 1.00f};
     public float flexMaxSec        = 1.50f;
     public int   flexTopK          = 3;
+    /**
+     * Anytime FLEX: run strategies cheapest-first (fewest new embeddings) and stop once the best
+     * score reaches flexAcceptScore, falls flexRejectMargin below it after two strategies, or the
+     * next one would overrun flexBudgetMs (0 = no budget). Skipped strategies are reported in
+     * VerificationResult.skippedStrategies; the per-strategy map only has the ones that ran.
+     */
+    public boolean flexAnytime     = false;
+    public float flexAcceptScore   = 0.70f;
+    public float flexRejectMargin  = 0.25f;
+    public int   flexBudgetMs      = 0;
+    /**
+     * pushVerify: embed complete FLEX windows on a background thread while the utterance is still
+     * open, so finalization only embeds the tail windows. Speculative windows always use per-window
+     * Fbank (exact), also with featurePyramid.
+     */
+    public boolean speculativeEmbed = false;
+    /**
+     * pushVerify: report a provisional result to SpeakerIdEngine.ProvisionalListener every this many
+     * seconds of voiced audio while the utterance is open (0 = off). confident is set once the
+     * running top-k mean reaches provisionalConfidentScore.
+     */
+    public float provisionalEverySec       = 0f;
+    public float provisionalConfidentScore = 0.70f;
+    /**
+     * Feature-pyramid FLEX: compute log-mels once per voiced segment and embed every window as a
+     * frame view (starts snapped to the 10 ms hop, short windows loop-padded in the frame domain).
+     * Much cheaper with many slices; scores drift slightly vs. per-slice Fbank.
+     */
+    public boolean featurePyramid  = false;
+
+    /** Fast-math Fbank (table log + fused int16 window kernel); embeddings within cosine 0.9999 of exact (FastMathParityTest). */
+    public boolean fbankFastMath   = false;
+
+    /**
+     * Prefer the asset speakernet_fused_fbank.onnx (built by tools/fuse_fbank_onnx.py) when present:
+     * the mel front-end runs inside ORT and the embedder feeds raw PCM. featurePyramid and
+     * fbankFastMath have no effect with a fused model.
+     */
+    public boolean onnxFrontEnd    = false;
 
     public int   clusterSize       = 5;
 
@@ -30,19 +98,49 @@ public final class SpeakerIdConfig {
     public float addSampleThreshold = -1f;
     public int   addSampleMax       = 1_000_000;
 
+    /**
+     * Adaptation persistence: with write-behind the running mean stays authoritative in memory and
+     * the .npy/.count files are rewritten on a background thread after adaptFlushEvery updates or
+     * adaptFlushSec seconds, whichever comes first, and on close() / app backgrounding. A crash
+     * loses at most those pending updates. false: write synchronously on every accepted sample.
+     */
+    public boolean adaptWriteBehind = true;
+    public int   adaptFlushEvery    = 8;
+    public float adaptFlushSec      = 5f;
+
     /** Paths where we persist mean vector and cluster (NumPy .npy format). */
     public File  meanEmbNpy;      // "speaker_emb.npy"
     public File  clusterNpy;      // "speaker_emb_cluster.npy"
 
+    /**
+     * Keep targets in one memory-mapped profile store (SpeakerProfileStore) instead of the .npy
+     * files above. create() sets profileStore to SpeakerIdStorage.defaultProfileStore when
+     * useProfileStore is on; existing .npy targets are migrated into profileName on first load.
+     */
+    public boolean useProfileStore = false;
+    public File   profileStore;         // "speaker_profiles.bin"; null = .npy files
+    public String profileName = "default";
+
     public SpeakerIdConfig copy() {
         SpeakerIdConfig c = new SpeakerIdConfig();
         c.rateHz = rateHz; c.vadChunk = vadChunk; c.onThr = onThr; c.offThr = offThr;
-        c.silenceAfterSec = silenceAfterSec; c.prerollFrames = prerollFrames;
+        c.silenceAfterSec = silenceAfterSec; c.prerollFrames = prerollFrames; c.rollingVadCache = rollingVadCache;
+        c.maxSegmentSec = maxSegmentSec; c.segmentOverflow = segmentOverflow;
+        c.vadGate = vadGate; c.vadGateFloorDbfs = vadGateFloorDbfs; c.vadGateQuietDbfs = vadGateQuietDbfs;
+        c.vadGateNoiseZcr = vadGateNoiseZcr; c.vadGateNoiseFlatness = vadGateNoiseFlatness;
+        c.vadGateHangover = vadGateHangover;
         c.sliceSec = sliceSec; c.sliceHopSec = sliceHopSec; c.minEmbedSec = minEmbedSec;
         c.flexEnabled = flexEnabled; c.flexSizesSec = Arrays.copyOf(flexSizesSec, flexSizesSec.length);
-        c.flexMaxSec = flexMaxSec; c.flexTopK = flexTopK;
+        c.flexMaxSec = flexMaxSec; c.flexTopK = flexTopK; c.featurePyramid = featurePyramid;
+        c.flexAnytime = flexAnytime; c.flexAcceptScore = flexAcceptScore;
+        c.flexRejectMargin = flexRejectMargin; c.flexBudgetMs = flexBudgetMs;
+        c.speculativeEmbed = speculativeEmbed;
+        c.provisionalEverySec = provisionalEverySec; c.provisionalConfidentScore = provisionalConfidentScore;
+        c.fbankFastMath = fbankFastMath; c.onnxFrontEnd = onnxFrontEnd;
         c.clusterSize = clusterSize; c.addSampleThreshold = addSampleThreshold; c.addSampleMax = addSampleMax;
+        c.adaptWriteBehind = adaptWriteBehind; c.adaptFlushEvery = adaptFlushEvery; c.adaptFlushSec = adaptFlushSec;
         c.meanEmbNpy = meanEmbNpy; c.clusterNpy = clusterNpy;
+        c.useProfileStore = useProfileStore; c.profileStore = profileStore; c.profileName = profileName;
         return c;
     }
 }
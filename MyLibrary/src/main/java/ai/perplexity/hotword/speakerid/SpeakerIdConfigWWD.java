@@ -11,8 +11,19 @@ public final class SpeakerIdConfigWWD {
     public float silenceAfterSec   = 2.0f;     // used only by state-machine segmentation
     public int   prerollFrames     = 0;        // strict parity: do not include pre-activation frames
 
+    // Cascaded VAD gate, see SpeakerIdConfig.vadGate
+    public boolean vadGate           = false;
+    public float vadGateFloorDbfs    = -55f;
+    public float vadGateQuietDbfs    = -40f;
+    public float vadGateNoiseZcr     = 0.25f;
+    public float vadGateNoiseFlatness = 0.40f;
+    public int   vadGateHangover     = 4;
+
     /** Use ONLY the last tailSec seconds BEFORE VAD selection (python --tail-sec). */
     public float tailSec           = 1.5f;     // python --tail-sec 1.5
+    public boolean rollingVadCache = false;    // see SpeakerIdConfig.rollingVadCache
+    public float maxSegmentSec     = 30f;      // see SpeakerIdConfig.maxSegmentSec
+    public SpeakerIdConfig.SegmentOverflow segmentOverflow = SpeakerIdConfig.SegmentOverflow.FINALIZE;
 
     // This is only used by the state-machine onboarding path (mic); the collect-voiced path ignores it.
     public float  onboardVoicedTargetSec = 3.0f;
@@ -27,29 +38,58 @@ public final class SpeakerIdConfigWWD {
     public float[] flexSizesSec    = new float[]{0.25f, 0.50f, 0.75f, 1.00f};
     public float flexMaxSec        = 1.50f;
     public int   flexTopK          = 3;
+    public boolean flexAnytime     = false;    // see SpeakerIdConfig.flexAnytime
+    public float flexAcceptScore   = 0.70f;
+    public float flexRejectMargin  = 0.25f;
+    public int   flexBudgetMs      = 0;        // 0 = no budget
+    public boolean speculativeEmbed = false;   // see SpeakerIdConfig.speculativeEmbed
+    public float provisionalEverySec = 0f;     // see SpeakerIdConfig.provisionalEverySec
+    public float provisionalConfidentScore = 0.70f;
+    public boolean featurePyramid  = false;    // see SpeakerIdConfig.featurePyramid
+    public boolean fbankFastMath   = false;    // see SpeakerIdConfig.fbankFastMath
+    public boolean onnxFrontEnd    = false;    // see SpeakerIdConfig.onnxFrontEnd
 
     public int   clusterSize       = 5;
 
     /** Online adaptation (disabled if <0). */
     public float addSampleThreshold = -1f;
     public int   addSampleMax       = 1_000_000;
+    public boolean adaptWriteBehind = true;    // see SpeakerIdConfig.adaptWriteBehind
+    public int   adaptFlushEvery    = 8;
+    public float adaptFlushSec      = 5f;
 
     /** Paths where we persist mean vector and cluster (NumPy .npy format). */
     public File  meanEmbNpy;      // "speaker_emb.npy"
     public File  clusterNpy;      // "speaker_emb_cluster.npy"
 
+    public boolean useProfileStore = false;    // see SpeakerIdConfig.useProfileStore
+    public File   profileStore;
+    public String profileName = "wwd";         // shares the store file with the regular profile
+
     public SpeakerIdConfig copy() {
         SpeakerIdConfig c = new SpeakerIdConfig();
         c.rateHz = rateHz; c.vadChunk = vadChunk; c.onThr = onThr; c.offThr = offThr;
         c.silenceAfterSec = silenceAfterSec; c.prerollFrames = prerollFrames;
+        c.vadGate = vadGate; c.vadGateFloorDbfs = vadGateFloorDbfs; c.vadGateQuietDbfs = vadGateQuietDbfs;
+        c.vadGateNoiseZcr = vadGateNoiseZcr; c.vadGateNoiseFlatness = vadGateNoiseFlatness;
+        c.vadGateHangover = vadGateHangover;
 
         c.tailSec = tailSec;                 // <— add this to SpeakerIdConfig
+        c.rollingVadCache = rollingVadCache;
+        c.maxSegmentSec = maxSegmentSec; c.segmentOverflow = segmentOverflow;
 
         c.sliceSec = sliceSec; c.sliceHopSec = sliceHopSec; c.minEmbedSec = minEmbedSec;
         c.flexEnabled = flexEnabled; c.flexSizesSec = Arrays.copyOf(flexSizesSec, flexSizesSec.length);
-        c.flexMaxSec = flexMaxSec; c.flexTopK = flexTopK;
+        c.flexMaxSec = flexMaxSec; c.flexTopK = flexTopK; c.featurePyramid = featurePyramid;
+        c.flexAnytime = flexAnytime; c.flexAcceptScore = flexAcceptScore;
+        c.flexRejectMargin = flexRejectMargin; c.flexBudgetMs = flexBudgetMs;
+        c.speculativeEmbed = speculativeEmbed;
+        c.provisionalEverySec = provisionalEverySec; c.provisionalConfidentScore = provisionalConfidentScore;
+        c.fbankFastMath = fbankFastMath; c.onnxFrontEnd = onnxFrontEnd;
         c.clusterSize = clusterSize; c.addSampleThreshold = addSampleThreshold; c.addSampleMax = addSampleMax;
+        c.adaptWriteBehind = adaptWriteBehind; c.adaptFlushEvery = adaptFlushEvery; c.adaptFlushSec = adaptFlushSec;
         c.meanEmbNpy = meanEmbNpy; c.clusterNpy = clusterNpy;
+        c.useProfileStore = useProfileStore; c.profileStore = profileStore; c.profileName = profileName;
         return c;
     }
 }
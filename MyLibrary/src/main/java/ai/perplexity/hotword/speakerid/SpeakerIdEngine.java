@@ -12,76 +12,127 @@ import java.util.*;
  */
 public final class SpeakerIdEngine implements AutoCloseable {
     private static final String TAG = "SpeakerIdEngine";
+    private static final int ANYTIME_MIN_STRATEGIES = 2; // evaluated before an early reject
 
     private final SpeakerEmbedderOrt embedder;
     private final Vad vad;
     final SpeakerIdConfig cfg; // keep package-visible for Api to adjust K if needed
 
     // segmentation state
-    private enum State { IDLE, ACTIVE }
-    private State state = State.IDLE;
     private final int vadChunk; // samples
-    private final int silenceAfterSamps;
-    private final Deque<short[]> preroll = new ArrayDeque<>();
-    private int accumulatedSilence = 0;
-    private final ShortArray full = new ShortArray();
-    private final ShortArray voiced = new ShortArray();
+    private final StreamingSegmenter segmenter;        // pushVerify: unpadded chunks, grace for short
+    private StreamingSegmenter offlineSegmenter = null; // segmentOffline: padded chunks, created lazily
+    private int voicedSeen = 0;  // voiced samples of the open segment already streamed to feats/spec
+    // log-mel frames of the voiced segment, computed as blocks arrive (null for waveform models)
+    private final FbankStream voicedFeats;
+    // cfg.speculativeEmbed: FLEX windows of `voiced` embedded in the background (null when off)
+    private final SpeculativeFlex spec;
+    // embeddings of windows of `voiced` for the open utterance (provisional + final scoring)
+    private EmbMemo uttMemo = null;
+
+    // provisional results (cfg.provisionalEverySec > 0 and a listener set)
+    private ProvisionalListener provisionalListener = null;
+    private int provNextEmit = 0;       // voiced samples at which the next result is due
+    private int provNextWin = 0;        // start of the next base window to score
+    private final List<float[]> provRows = new ArrayList<>(); // per base window: cosine per target
+    private List<String> provLabels = null;
+    private float[][] provTargets = null;
 
     // adaptation
     private float[] meanVec = null;
     private int meanCount = 0;
     private int addedThisRun = 0;
+    private final MeanWriteBehind meanWriter; // cfg.adaptWriteBehind, else null (synchronous writes)
+
+    // targets live in cfg.profileStore (profile cfg.profileName) when set, else in the .npy files
+    private final SpeakerProfileStore store;
 
     // cluster
     private float[][] cluster = null; // K x D
 
+    /** Receives provisional results while an utterance is still open; see cfg.provisionalEverySec. */
+    public interface ProvisionalListener {
+        void onProvisional(VerificationResult r);
+    }
+
+    /** Opt-in provisional results from pushVerify (null = off). Called on the pushVerify thread. */
+    public void setProvisionalListener(ProvisionalListener l) { this.provisionalListener = l; }
+
     // Convenience passthrough for RN calls
     public float[] embedOnce(short[] seg) throws Exception {
-        return embedFromI16(seg);
+        return embedFromI16(AudioView.of(seg));
+    }
+
+    /** embedOnce on seg[off, off+len) without copying when the range already meets the model minimum. */
+    public float[] embedOnce(short[] seg, int off, int len) throws Exception {
+        return embedFromI16(new AudioView(seg, off, len));
     }
 
+    /** Embedder input-tensor pool stats (hit rate, live slots). */
+    public String tensorPoolStats() { return embedder.tensorPoolStats(); }
+
     public SpeakerIdEngine(OrtEnvironment env,
                            OrtSession.SessionOptions options,
                            String speakernetOnnxPath,
                            Vad vad,
                            SpeakerIdConfig cfg) throws OrtException {
-        this.embedder = new SpeakerEmbedderOrt(env, speakernetOnnxPath, options, cfg.rateHz);
+        this.embedder = new SpeakerEmbedderOrt(env, speakernetOnnxPath, options, cfg.rateHz, cfg.fbankFastMath);
         this.vad = vad;
         this.cfg = cfg.copy();
         this.vadChunk = cfg.vadChunk;
-        this.silenceAfterSamps = (int) Math.round(cfg.silenceAfterSec * cfg.rateHz);
-
-        // load persisted mean & count if present (with repair if needed)
-        loadMeanIfExists();
-        // load cluster if present
-        loadClusterIfExists();
+        this.segmenter = new StreamingSegmenter(vad, this.cfg, false, true);
+        this.voicedFeats = embedder.newFbankStream();
+        this.spec = cfg.speculativeEmbed ? newSpeculativeFlex() : null;
+        this.store = (this.cfg.profileStore != null) ? SpeakerProfileStore.open(this.cfg.profileStore) : null;
+        this.meanWriter = (cfg.adaptWriteBehind && (store != null || this.cfg.meanEmbNpy != null))
+                ? new MeanWriteBehind(new MeanWriteBehind.Sink() {
+                      @Override public void write(float[] mean, int count) throws IOException {
+                          persistMean(mean, count);
+                      }
+                  }, (store != null) ? this.cfg.profileStore + "#" + this.cfg.profileName : String.valueOf(this.cfg.meanEmbNpy),
+                  cfg.adaptFlushEvery, cfg.adaptFlushSec)
+                : null;
+
+        if (store != null) {
+            loadFromStore();
+        } else {
+            // load persisted mean & count if present (with repair if needed)
+            loadMeanIfExists();
+            // load cluster if present
+            loadClusterIfExists();
+        }
     }
 
     // ---------- Enrollment from a single utterance ----------
     public OnboardingResult enrollFromUtterance(short[] pcm) throws Exception {
+        return enrollFromUtterance(AudioView.of(pcm));
+    }
+
+    /** enrollFromUtterance on a view (e.g. a segment still inside a segmenter's buffer). */
+    OnboardingResult enrollFromUtterance(AudioView pcm) throws Exception {
         // 1) Segment and take the first voiced segment
-        List<short[]> segs = segmentOffline(pcm);
+        List<AudioView> segs = segmentOffline(pcm);
         if (segs.isEmpty()) throw new IllegalStateException("No voiced segment found.");
-        short[] seg = segs.get(0);
+        AudioView seg = segs.get(0);
 
         // 2) Slice settings
         int win = secondsToSamps(cfg.sliceSec);
         int hop = secondsToSamps((cfg.sliceHopSec != null) ? cfg.sliceHopSec : cfg.sliceSec);
 
         // 3) Debug: show all slice windows (start/duration)
-        List<short[]> slices = sliceI16(seg, win, hop);
+        List<AudioView> slices = sliceI16(seg, win, hop);
         if (cfg.debugVadFrames) {
             int off = 0, idx = 0;
-            for (short[] s : slices) {
+            for (AudioView s : slices) {
                 int startMs = (int) (1000L * off / cfg.rateHz);
-                int durMs   = (int) (1000L * s.length / cfg.rateHz);
+                int durMs   = (int) (1000L * s.len / cfg.rateHz);
                 Log.d(TAG, String.format(
                         java.util.Locale.US,
                         "[ONBOARD] slice#%d start_ms=%d dur_ms=%d samp=%d",
-                        idx++, startMs, durMs, s.length));
+                        idx++, startMs, durMs, s.len));
                 off += hop;
             }
-            int voicedMs = (int)(1000L * seg.length / cfg.rateHz);
+            int voicedMs = (int)(1000L * seg.len / cfg.rateHz);
             Log.d(TAG, String.format(java.util.Locale.US,
                     "[ONBOARD] voiced_ms_total=%d slices_total=%d win_ms=%d hop_ms=%d",
                     voicedMs, slices.size(),
@@ -90,7 +141,7 @@ public final class SpeakerIdEngine implements AutoCloseable {
         }
 
         // 4) Embed each valid slice
-        List<float[]> embs = sliceEmbeddings(seg, win, hop);
+        List<float[]> embs = sliceEmbeddings(slices);
         if (embs.isEmpty()) {
             // Fallback: embed whole voiced segment (embedder will pad if needed)
             embs = java.util.Collections.singletonList(embedFromI16(seg));
@@ -116,6 +167,8 @@ public final class SpeakerIdEngine implements AutoCloseable {
         final int D = cl[0].length;
 
         // 6) Save cluster + mean (+count) — mean saved as [1,D] row matrix
+        if (meanWriter != null) meanWriter.discard(); // a late adaptation write must not land on top
+        if (store != null) return enrollToStore(cl);
         try {
             NpyUtil.saveMatrixFloat32Atomic(cfg.clusterNpy, cl);
         } catch (NoSuchMethodError | UnsupportedOperationException ignore) {
@@ -161,7 +214,8 @@ public final class SpeakerIdEngine implements AutoCloseable {
             return null;
         }
         // fullSeg==voicedSeg here
-        return scoreAndMaybeAdapt(voicedSeg, voicedSeg);
+        AudioView v = AudioView.of(voicedSeg);
+        return scoreAndMaybeAdapt(v.len, v);
     }
 
     // ---------- WWD: enroll directly from precomputed 1s embeddings ----------
@@ -179,6 +233,8 @@ public final class SpeakerIdEngine implements AutoCloseable {
         }
         final int D = cl[0].length;
 
+        if (meanWriter != null) meanWriter.discard();
+        if (store != null) return enrollToStore(cl);
         try {
             NpyUtil.saveMatrixFloat32Atomic(cfg.clusterNpy, cl);
         } catch (NoSuchMethodError | UnsupportedOperationException ignore) {
@@ -219,54 +275,20 @@ public final class SpeakerIdEngine implements AutoCloseable {
         int i = 0;
         while (i < pcm16.length) {
             int take = Math.min(vadChunk, pcm16.length - i);
-            short[] block = Arrays.copyOfRange(pcm16, i, i + take);
-            int origLen = block.length;                  // remember
+            StreamingSegmenter.Event ev = segmenter.step(pcm16, i, take);
             i += take;
+            onVoicedAppended(ev != StreamingSegmenter.Event.CLOSED);
 
-            if (block.length < vadChunk) {
-                block = padTo(block, vadChunk); // pad for VAD
-            }
-            float p = vad.feed(block);
-
-            if (state == State.IDLE) {
-                // preroll queue
-                short[] unpadded = (origLen == vadChunk) ? block : Arrays.copyOf(block, origLen);
-
-                preroll.addLast(unpadded);
-                while (preroll.size() > cfg.prerollFrames) preroll.removeFirst();
-                if (p >= cfg.onThr) {
-                    state = State.ACTIVE;
-                    // prepend preroll to both full & voiced
-                    concatDequeInto(full, preroll);
-                    concatDequeInto(voiced, preroll);
-                    full.append(unpadded);
-                    voiced.append(unpadded);
-                    accumulatedSilence = 0;
-                }
-            } else {
-                short[] unpadded = (origLen == vadChunk) ? block : Arrays.copyOf(block, origLen);
-
-                full.append(unpadded);
-                if (p >= cfg.offThr) {
-                    voiced.append(unpadded);
-                    accumulatedSilence = 0;
-                } else {
-                    accumulatedSilence += vadChunk;
-                    int minEmbed = secondsToSamps(cfg.minEmbedSec);
-                    // grace window for short follow-up
-                    int softLimit = silenceAfterSamps;
-                    int hardLimit = silenceAfterSamps * 2;
-                    int limit = (voiced.size() < minEmbed) ? hardLimit : softLimit;
-
-                    if (accumulatedSilence >= limit) {
-                        // finalize a segment
-                        short[] fullSeg = full.toArray();
-                        short[] voicedSeg = voiced.toArray();
-                        resetSegState();
-                        if (voicedSeg.length >= minEmbed) {
-                            return scoreAndMaybeAdapt(fullSeg, voicedSeg);
-                        }
+            if (ev == StreamingSegmenter.Event.CLOSED) {
+                // finalize a segment (the view stays valid until resetSegState)
+                AudioView voicedSeg = segmenter.segment();
+                try {
+                    if (voicedSeg.len >= secondsToSamps(cfg.minEmbedSec)) {
+                        // features of voicedSeg are already streamed; only views are embedded
+                        return scoreAndMaybeAdapt(segmenter.fullSamples(), voicedSeg, voicedFeats, utteranceMemo());
                     }
+                } finally {
+                    resetSegState();
                 }
             }
         }
@@ -275,25 +297,69 @@ public final class SpeakerIdEngine implements AutoCloseable {
 
     /** Flush any active segment at end-of-stream. */
     public VerificationResult finishVerify() throws Exception {
-        if (state == State.ACTIVE) {
-            short[] fullSeg = full.toArray();
-            short[] voicedSeg = voiced.toArray();
-            resetSegState();
-            if (voicedSeg.length >= secondsToSamps(cfg.minEmbedSec)) {
-                return scoreAndMaybeAdapt(fullSeg, voicedSeg);
+        if (segmenter.flush()) {
+            AudioView voicedSeg = segmenter.segment();
+            try {
+                if (voicedSeg.len >= secondsToSamps(cfg.minEmbedSec)) {
+                    return scoreAndMaybeAdapt(segmenter.fullSamples(), voicedSeg, voicedFeats, utteranceMemo());
+                }
+            } finally {
+                resetSegState();
             }
         }
         return null;
     }
 
+    /** Stream voiced audio the segmenter appended since the last chunk to feats, speculation, provisional. */
+    private void onVoicedAppended(boolean open) throws Exception {
+        int n = segmenter.voicedSamples();
+        if (n <= voicedSeen) return;
+        short[] a = segmenter.buffer();
+        if (voicedFeats != null) voicedFeats.accept(a, voicedSeen, n - voicedSeen);
+        voicedSeen = n;
+        if (!open) return;
+        if (spec != null) spec.offer(a, n);
+        maybeEmitProvisional();
+    }
+
     // ---------- Core scoring / FLEX (multi-target, verbose) ----------
-    private VerificationResult scoreAndMaybeAdapt(short[] fullSeg, short[] voicedSeg) throws Exception {
-        float fullSec = fullSeg.length / (float) cfg.rateHz;
-        float voicedSec = voicedSeg.length / (float) cfg.rateHz;
+    private VerificationResult scoreAndMaybeAdapt(int fullSamples, AudioView voicedSeg) throws Exception {
+        return scoreAndMaybeAdapt(fullSamples, voicedSeg, null, new EmbMemo(null));
+    }
+
+    /**
+     * feats (nullable) must hold the streamed log-mels of exactly voicedSeg; memo holds windows of
+     * voicedSeg already embedded while it was open (provisional results, speculative worker).
+     */
+    private VerificationResult scoreAndMaybeAdapt(int fullSamples, AudioView voicedSeg, FbankStream feats,
+                                                  EmbMemo memo) throws Exception {
+        float fullSec = fullSamples / (float) cfg.rateHz;
+        float voicedSec = voicedSeg.len / (float) cfg.rateHz;
 
         // Targets: [mean] + cluster rows
         List<float[]> targets = new ArrayList<>();
         List<String> labels = new ArrayList<>();
+        collectTargets(targets, labels);
+
+        if (feats != null && feats.samples() != voicedSeg.len) feats = null; // out of sync → PCM path
+        if (memo.seed != null) memo.seed.drain(); // worker idle from here on: memo is stable, final FLEX runs alone
+        FlexEval out = flexEvalMultiVerbose(voicedSeg, feats, targets, labels, memo);
+        // Online adaptation: add winning segment if above threshold
+        if (cfg.addSampleThreshold >= 0 && out.bestScore >= cfg.addSampleThreshold && addedThisRun < cfg.addSampleMax) {
+            float[] newEmb = (out.bestLen == out.bestSegment.len) ? memo.get(out.bestStart, out.bestLen) : null;
+            if (newEmb == null) newEmb = embedFromI16(out.bestSegment);
+            addToRunningMean(newEmb);
+            addedThisRun += 1;
+        }
+        if (cfg.debugVadFrames) {
+            Log.d(TAG, String.format(Locale.US, "[EMB] memo hits=%d misses=%d speculative=%d",
+                    memo.hits, memo.misses, memo.speculative));
+        }
+        return new VerificationResult(fullSec, voicedSec, out.bestScore, out.bestStrategy, out.bestTargetLabel,
+                out.perTargetStrategy, memo.hits, memo.misses, out.skipped, false, false);
+    }
+
+    private void collectTargets(List<float[]> targets, List<String> labels) throws IOException {
         ensureMeanLoaded(); // will also repair wrong-shaped mean on load
         targets.add(meanVec); labels.add("mean");
         if (cluster != null) {
@@ -301,16 +367,157 @@ public final class SpeakerIdEngine implements AutoCloseable {
                 targets.add(cluster[i]); labels.add("c#" + (i + 1));
             }
         }
+    }
 
-        FlexEval out = flexEvalMultiVerbose(voicedSeg, targets, labels);
-        // Online adaptation: add winning segment if above threshold
-        if (cfg.addSampleThreshold >= 0 && out.bestScore >= cfg.addSampleThreshold && addedThisRun < cfg.addSampleMax) {
-            float[] newEmb = embedFromI16(out.bestSegment);
-            addToRunningMean(newEmb);
-            addedThisRun += 1;
+    private EmbMemo utteranceMemo() {
+        if (uttMemo == null) uttMemo = new EmbMemo(spec);
+        return uttMemo;
+    }
+
+    /**
+     * Provisional result every cfg.provisionalEverySec of voiced audio: base windows completed since
+     * the last one are embedded through embedSlices over the streamed voicedFeats (into the utterance
+     * memo, so final scoring reuses exactly what it would compute) and scored; the result carries the
+     * running max and top-k mean. With the speculative worker on, only windows it already finished
+     * are used.
+     */
+    private void maybeEmitProvisional() throws Exception {
+        if (provisionalListener == null || cfg.provisionalEverySec <= 0f) return;
+        int every = Math.max(1, secondsToSamps(cfg.provisionalEverySec));
+        if (provNextEmit == 0) provNextEmit = Math.max(every, secondsToSamps(cfg.minEmbedSec));
+        int n = segmenter.voicedSamples();
+        short[] voiced = segmenter.buffer();
+        if (n < provNextEmit) return;
+        provNextEmit = n + every;
+
+        if (provTargets == null) {
+            List<float[]> targets = new ArrayList<>();
+            provLabels = new ArrayList<>();
+            collectTargets(targets, provLabels);
+            provTargets = new float[targets.size()][];
+            for (int i = 0; i < provTargets.length; ++i) provTargets[i] = l2copy(targets.get(i));
         }
-        return new VerificationResult(fullSec, voicedSec, out.bestScore, out.bestStrategy, out.bestTargetLabel,
-                out.perTargetStrategy);
+        int win = secondsToSamps(cfg.sliceSec);
+        int hop = Math.max(1, secondsToSamps(cfg.sliceHopSec != null ? cfg.sliceHopSec : cfg.sliceSec));
+        EmbMemo memo = utteranceMemo();
+        FbankStream feats = (voicedFeats != null && voicedFeats.samples() == n) ? voicedFeats : null;
+        List<AudioView> slices = new ArrayList<>();
+        for (int s = provNextWin; s + win <= n; s += hop) {
+            if (!memo.has(s, win)) {
+                if (spec != null) break; // not speculated yet: retry at the next emission
+                // pyramid view clamped to the frames streamed so far: final FLEX would snap it differently
+                if (feats != null && cfg.featurePyramid
+                        && Math.round(s / (float) feats.frameShift()) + feats.framesFor(win) > feats.frames()) break;
+            }
+            slices.add(new AudioView(voiced, s, win));
+        }
+        int count = slices.size();
+        if (count > 0) {
+            int[] starts = new int[count];
+            for (int i = 0; i < count; ++i) starts[i] = provNextWin + i * hop;
+            float[][] embs = embedSlices(slices, starts, null, feats, memo);
+            for (float[] e : embs) {
+                float[] row = new float[provTargets.length];
+                for (int ti = 0; ti < row.length; ++ti) row[ti] = SpeakerEmbedderOrt.cosine(e, provTargets[ti]);
+                provRows.add(row);
+            }
+            provNextWin += count * hop;
+        }
+        if (provRows.isEmpty()) return;
+
+        // per target: max and top-k mean over the windows so far
+        int S = provRows.size(), M = provTargets.length, k = Math.min(Math.max(1, cfg.flexTopK), S);
+        Map<String, Float> perTmax = new LinkedHashMap<>(), perTtopk = new LinkedHashMap<>();
+        float best = Float.NEGATIVE_INFINITY, bestTopk = Float.NEGATIVE_INFINITY;
+        String bestLabel = "none";
+        float[] col = new float[S];
+        for (int ti = 0; ti < M; ++ti) {
+            for (int si = 0; si < S; ++si) col[si] = provRows.get(si)[ti];
+            Arrays.sort(col);
+            float sum = 0f;
+            for (int idx = S - 1; idx >= S - k; --idx) sum += col[idx];
+            perTmax.put(provLabels.get(ti), col[S - 1]);
+            perTtopk.put(provLabels.get(ti), sum / k);
+            if (col[S - 1] > best) { best = col[S - 1]; bestLabel = provLabels.get(ti); }
+            bestTopk = Math.max(bestTopk, sum / k);
+        }
+        Map<String, Map<String, Float>> perT = new LinkedHashMap<>();
+        perT.put("base_max", perTmax);
+        perT.put("base_top" + k + "_mean", perTtopk);
+        // confident: the top-k mean (not a single lucky window) clears the bar over a full top-k
+        boolean confident = S >= Math.max(1, cfg.flexTopK) && bestTopk >= cfg.provisionalConfidentScore;
+
+        VerificationResult r = new VerificationResult(segmenter.fullSamples() / (float) cfg.rateHz, n / (float) cfg.rateHz,
+                best, "base_max", bestLabel, perT, memo.hits, memo.misses,
+                Collections.<String>emptyList(), true, confident);
+        try {
+            provisionalListener.onProvisional(r);
+        } catch (RuntimeException ex) {
+            Log.w(TAG, "provisional listener: " + ex);
+        }
+    }
+
+    /**
+     * Per-utterance embedding memo keyed by the window (offset, length) inside the voiced segment.
+     * FLEX strategies overlap (base 0.5 s and mr0.50 share every other window) and adaptation
+     * re-embeds the winning window; each window is embedded once. Padded windows are not memoized.
+     * Windows embedded speculatively (seed, drained) count as hits.
+     */
+    private static final class EmbMemo {
+        private final HashMap<Long, float[]> map = new HashMap<>();
+        final SpeculativeFlex seed;
+        int hits = 0, misses = 0, speculative = 0;
+
+        EmbMemo(SpeculativeFlex seed) { this.seed = seed; }
+
+        boolean has(int start, int len) {
+            return map.containsKey(SpeculativeFlex.key(start, len)) || (seed != null && seed.has(start, len));
+        }
+
+        float[] get(int start, int len) {
+            long k = SpeculativeFlex.key(start, len);
+            float[] e = map.get(k);
+            if (e == null && seed != null && (e = seed.get(start, len)) != null) {
+                map.put(k, e);
+                speculative++;
+            }
+            if (e != null) hits++;
+            return e;
+        }
+
+        void put(int start, int len, float[] e) {
+            misses++;
+            map.put(SpeculativeFlex.key(start, len), e);
+        }
+    }
+
+    /** Window sizes/hops of the FLEX strategies whose full windows can be embedded before finalization. */
+    private SpeculativeFlex newSpeculativeFlex() {
+        List<int[]> wh = new ArrayList<>();
+        wh.add(new int[]{secondsToSamps(cfg.sliceSec),
+                secondsToSamps(cfg.sliceHopSec != null ? cfg.sliceHopSec : cfg.sliceSec)});
+        if (cfg.flexEnabled) {
+            for (float s : cfg.flexSizesSec) {
+                int win = secondsToSamps(s);
+                wh.add(new int[]{win, Math.max(1, win / 2)});
+            }
+        }
+        int maxSamps = secondsToSamps(cfg.flexMaxSec);
+        if (maxSamps >= secondsToSamps(cfg.minEmbedSec)) wh.add(new int[]{maxSamps, Integer.MAX_VALUE}); // whole
+        int[] wins = new int[wh.size()], hops = new int[wh.size()];
+        for (int i = 0; i < wins.length; i++) { wins[i] = wh.get(i)[0]; hops[i] = Math.max(1, wh.get(i)[1]); }
+
+        final Fbank fb = embedder.newFbank(); // own scratch: voicedFeats keeps using the shared one
+        return new SpeculativeFlex(wins, hops, new SpeculativeFlex.Embed() {
+            @Override public float[] embed(AudioView w) throws Exception {
+                AudioView x = ensureMinSamplesForModel(w);
+                float[] e = embedder.embedOnce(fb, x.a, x.off, x.len);
+                if (e == null || e.length == 0) return null;
+                for (float v : e) if (!Float.isFinite(v)) return null;
+                l2normInPlace(e);
+                return e;
+            }
+        });
     }
 
     // Holds verbose FLEX evaluation
@@ -318,93 +525,168 @@ public final class SpeakerIdEngine implements AutoCloseable {
         float bestScore = Float.NEGATIVE_INFINITY;
         String bestStrategy = "none";
         String bestTargetLabel = "none";
-        short[] bestSegment = null;
+        AudioView bestSegment = null;
+        int bestStart = 0, bestLen = 0; // window of bestSegment inside the voiced segment
+        List<String> skipped = new ArrayList<>(); // anytime mode: strategies not evaluated
         Map<String, Map<String, Float>> perTargetStrategy = new LinkedHashMap<>();
     }
 
-    private FlexEval flexEvalMultiVerbose(short[] voicedSeg, List<float[]> targets, List<String> labels) throws Exception {
+    /** One FLEX strategy: its windows inside the voiced segment (lens null → slice length). */
+    private static final class FlexPlan {
+        final String tag; final List<AudioView> slices; final int[] starts, lens;
+        FlexPlan(String tag, List<AudioView> slices, int[] starts, int[] lens) {
+            this.tag = tag; this.slices = slices; this.starts = starts; this.lens = lens;
+        }
+        /** Embeddings this strategy still needs (windows not in memo). */
+        int cost(EmbMemo memo) {
+            int n = 0;
+            for (int i = 0; i < slices.size(); ++i) {
+                int len = (lens != null) ? lens[i] : slices.get(i).len;
+                if (len != slices.get(i).len || !memo.has(starts[i], len)) n++;
+            }
+            return n;
+        }
+    }
+
+    private FlexEval flexEvalMultiVerbose(AudioView voicedSeg, FbankStream feats,
+                                          List<float[]> targets, List<String> labels, EmbMemo memo) throws Exception {
         FlexEval fe = new FlexEval();
-        if (voicedSeg.length < secondsToSamps(cfg.minEmbedSec)) return fe;
+        if (voicedSeg.len < secondsToSamps(cfg.minEmbedSec)) return fe;
+        long t0 = System.nanoTime();
+
+        // feature pyramid: one Fbank pass over the segment, every window below becomes a view
+        if (feats == null && cfg.featurePyramid && embedder.expectsFeatures()) {
+            feats = embedder.newFbankStream();
+            feats.accept(voicedSeg.a, voicedSeg.off, voicedSeg.len);
+        }
 
         // normalized target matrix D x M
         float[][] T = new float[targets.size()][];
         for (int i = 0; i < targets.size(); ++i) T[i] = l2copy(targets.get(i));
-        // helper: score a list of slices → best per target, + keep segment for _max strategies
-        class Scored {
-            final String tag; final List<short[]> slices; final float[][] scores; // S x M
-            Scored(String tag, List<short[]> slices, float[][] scores) { this.tag = tag; this.slices = slices; this.scores = scores; }
-        }
 
-        List<Scored> items = new ArrayList<>();
+        List<FlexPlan> plans = new ArrayList<>();
 
         // base slices
-        List<short[]> base = sliceI16(voicedSeg, secondsToSamps(cfg.sliceSec),
-                secondsToSamps(cfg.sliceHopSec != null ? cfg.sliceHopSec : cfg.sliceSec));
-        if (!base.isEmpty()) items.add(new Scored("base", base, scoreSlices(base, T)));
+        int baseWin = secondsToSamps(cfg.sliceSec);
+        int baseHop = secondsToSamps(cfg.sliceHopSec != null ? cfg.sliceHopSec : cfg.sliceSec);
+        List<AudioView> base = sliceI16(voicedSeg, baseWin, baseHop);
+        if (!base.isEmpty()) {
+            plans.add(new FlexPlan("base", base, sliceStarts(voicedSeg.len, baseWin, baseHop), null));
+        }
 
         // multi-res
         if (cfg.flexEnabled) {
             for (float s : cfg.flexSizesSec) {
                 int win = secondsToSamps(s);
                 int hop = Math.max(1, win / 2);
-                List<short[]> sl = sliceI16(voicedSeg, win, hop);
-                if (!sl.isEmpty()) items.add(new Scored(String.format(Locale.US, "mr%.2f", s), sl, scoreSlices(sl, T)));
+                List<AudioView> sl = sliceI16(voicedSeg, win, hop);
+                if (!sl.isEmpty()) {
+                    plans.add(new FlexPlan(String.format(Locale.US, "mr%.2f", s), sl,
+                            sliceStarts(voicedSeg.len, win, hop), null));
+                }
             }
         }
 
         // whole
         int maxSamps = secondsToSamps(cfg.flexMaxSec);
-        short[] whole = Arrays.copyOf(voicedSeg, Math.min(voicedSeg.length, maxSamps));
-        if (whole.length < secondsToSamps(cfg.minEmbedSec)) {
-            whole = loopOrPad(whole, secondsToSamps(Math.max(cfg.minEmbedSec, 0.5f)));
-        }
-        List<short[]> wlist = Collections.singletonList(whole);
-        items.add(new Scored("whole", wlist, scoreSlices(wlist, T)));
-
-        // Aggregate per-target metrics and pick the global best
-        for (Scored sc : items) {
-            float[][] mat = sc.scores; // S x M
-            int S = mat.length, M = mat[0].length;
-            // max per target
-            Map<String, Float> perTmax = new LinkedHashMap<>();
-            float globalMax = Float.NEGATIVE_INFINITY; int globalMaxTi = -1; int globalMaxSi = -1;
-            for (int ti = 0; ti < M; ++ti) {
-                float best = Float.NEGATIVE_INFINITY; int bestSi = -1;
-                for (int si = 0; si < S; ++si) {
-                    if (mat[si][ti] > best) { best = mat[si][ti]; bestSi = si; }
+        AudioView whole = voicedSeg.sub(0, Math.min(voicedSeg.len, maxSamps));
+        int wholeLen = whole.len; // view length inside voicedSeg (before any padding)
+        if (whole.len < secondsToSamps(cfg.minEmbedSec)) {
+            whole = whole.loopOrPad(secondsToSamps(Math.max(cfg.minEmbedSec, 0.5f)));
+        }
+        plans.add(new FlexPlan("whole", Collections.singletonList(whole), new int[]{0}, new int[]{wholeLen}));
+
+        if (!cfg.flexAnytime) {
+            for (FlexPlan fp : plans) {
+                aggregate(fe, fp, scoreSlices(fp.slices, fp.starts, fp.lens, feats, T, memo), labels);
+            }
+            return fe;
+        }
+
+        // Anytime: cheapest strategy next (fewest new embeddings, ties → longer windows), stop on a
+        // clear accept/reject or when the next strategy would not fit the latency budget.
+        int done = 0, embedded = 0;
+        String stop = "all";
+        while (!plans.isEmpty()) {
+            int pick = 0, pickCost = Integer.MAX_VALUE;
+            for (int i = 0; i < plans.size(); ++i) {
+                FlexPlan fp = plans.get(i);
+                int c = fp.cost(memo);
+                if (c < pickCost || (c == pickCost && fp.slices.get(0).len > plans.get(pick).slices.get(0).len)) {
+                    pick = i; pickCost = c;
                 }
-                perTmax.put(labels.get(ti), best);
-                if (best > globalMax) { globalMax = best; globalMaxTi = ti; globalMaxSi = bestSi; }
             }
-            fe.perTargetStrategy.put(sc.tag + "_max", perTmax);
-            if (globalMax > fe.bestScore) {
-                fe.bestScore = globalMax;
-                fe.bestStrategy = sc.tag + "_max";
-                fe.bestTargetLabel = labels.get(globalMaxTi);
-                fe.bestSegment = sc.slices.get(globalMaxSi);
+            if (done > 0 && cfg.flexBudgetMs > 0) {
+                float elapsedMs = (System.nanoTime() - t0) / 1e6f;
+                float msPerEmb = (embedded > 0) ? elapsedMs / embedded : 0f;
+                if (elapsedMs + pickCost * msPerEmb > cfg.flexBudgetMs) { stop = "budget"; break; }
             }
-            // top-k mean per target
-            int k = Math.min(cfg.flexTopK, S);
-            if (k >= 2) {
-                Map<String, Float> perTtopk = new LinkedHashMap<>();
-                for (int ti = 0; ti < M; ++ti) {
-                    float[] col = new float[S]; for (int si = 0; si < S; ++si) col[si] = mat[si][ti];
-                    Arrays.sort(col);
-                    float sum = 0f; int kk = 0;
-                    for (int idx = S - 1; idx >= Math.max(0, S - k); --idx) { sum += col[idx]; kk++; }
-                    perTtopk.put(labels.get(ti), kk > 0 ? sum / kk : Float.NEGATIVE_INFINITY);
-                }
-                fe.perTargetStrategy.put(sc.tag + "_top" + k + "_mean", perTtopk);
+            FlexPlan fp = plans.remove(pick);
+            aggregate(fe, fp, scoreSlices(fp.slices, fp.starts, fp.lens, feats, T, memo), labels);
+            embedded += pickCost;
+            done++;
+            if (fe.bestScore >= cfg.flexAcceptScore) { stop = "accept"; break; }
+            if (done >= ANYTIME_MIN_STRATEGIES && fe.bestScore < cfg.flexAcceptScore - cfg.flexRejectMargin) {
+                stop = "reject"; break;
             }
         }
+        for (FlexPlan fp : plans) fe.skipped.add(fp.tag);
+        if (cfg.debugVadFrames) {
+            Log.d(TAG, String.format(Locale.US, "[FLEX] anytime stop=%s best=%.3f ran=%d skipped=%s in %.1f ms",
+                    stop, fe.bestScore, done, fe.skipped, (System.nanoTime() - t0) / 1e6f));
+        }
         return fe;
     }
 
-    private float[][] scoreSlices(List<short[]> slices, float[][] targetsColMajor) throws Exception {
+    /** Per-target max (and top-k mean) of one strategy's S x M score matrix; updates the global best. */
+    private void aggregate(FlexEval fe, FlexPlan sc, float[][] mat, List<String> labels) {
+        int S = mat.length, M = mat[0].length;
+        // max per target
+        Map<String, Float> perTmax = new LinkedHashMap<>();
+        float globalMax = Float.NEGATIVE_INFINITY; int globalMaxTi = -1; int globalMaxSi = -1;
+        for (int ti = 0; ti < M; ++ti) {
+            float best = Float.NEGATIVE_INFINITY; int bestSi = -1;
+            for (int si = 0; si < S; ++si) {
+                if (mat[si][ti] > best) { best = mat[si][ti]; bestSi = si; }
+            }
+            perTmax.put(labels.get(ti), best);
+            if (best > globalMax) { globalMax = best; globalMaxTi = ti; globalMaxSi = bestSi; }
+        }
+        fe.perTargetStrategy.put(sc.tag + "_max", perTmax);
+        if (globalMax > fe.bestScore) {
+            fe.bestScore = globalMax;
+            fe.bestStrategy = sc.tag + "_max";
+            fe.bestTargetLabel = labels.get(globalMaxTi);
+            fe.bestSegment = sc.slices.get(globalMaxSi);
+            fe.bestStart = sc.starts[globalMaxSi];
+            fe.bestLen = (sc.lens != null) ? sc.lens[globalMaxSi] : fe.bestSegment.len;
+        }
+        // top-k mean per target
+        int k = Math.min(cfg.flexTopK, S);
+        if (k >= 2) {
+            Map<String, Float> perTtopk = new LinkedHashMap<>();
+            for (int ti = 0; ti < M; ++ti) {
+                float[] col = new float[S]; for (int si = 0; si < S; ++si) col[si] = mat[si][ti];
+                Arrays.sort(col);
+                float sum = 0f; int kk = 0;
+                for (int idx = S - 1; idx >= Math.max(0, S - k); --idx) { sum += col[idx]; kk++; }
+                perTtopk.put(labels.get(ti), kk > 0 ? sum / kk : Float.NEGATIVE_INFINITY);
+            }
+            fe.perTargetStrategy.put(sc.tag + "_top" + k + "_mean", perTtopk);
+        }
+    }
+
+    /**
+     * starts[i]/lens[i] = window of slice i inside the voiced segment (lens null → slice length).
+     * A slice longer than its window is a padded copy of it.
+     */
+    private float[][] scoreSlices(List<AudioView> slices, int[] starts, int[] lens, FbankStream feats,
+                                  float[][] targetsColMajor, EmbMemo memo) throws Exception {
         int S = slices.size(), M = targetsColMajor.length;
+        float[][] embs = embedSlices(slices, starts, lens, feats, memo);
         float[][] out = new float[S][M];
         for (int i = 0; i < S; ++i) {
-            float[] emb = embedFromI16(slices.get(i));
+            float[] emb = embs[i];
             for (int ti = 0; ti < M; ++ti) {
                 out[i][ti] = SpeakerEmbedderOrt.cosine(emb, targetsColMajor[ti]);
             }
@@ -412,119 +694,170 @@ public final class SpeakerIdEngine implements AutoCloseable {
         return out;
     }
 
-    private java.util.List<float[]> sliceEmbeddings(short[] voicedSeg, int win, int hop) throws Exception {
+    /** One embedding per slice (short slices padded to the model minimum). */
+    private java.util.List<float[]> sliceEmbeddings(List<AudioView> slices) throws Exception {
         java.util.ArrayList<float[]> out = new java.util.ArrayList<>();
-        if (voicedSeg == null || voicedSeg.length == 0 || win <= 0) return out;
+        for (AudioView sl : slices) out.add(embedFromI16(sl));
+        return out;
+    }
 
-        int i = 0;
-        while (i + win <= voicedSeg.length) {
-            short[] sl = java.util.Arrays.copyOfRange(voicedSeg, i, i + win);
-            out.add(embedFromI16(sl));
-            i += hop;
-        }
-        int rem = voicedSeg.length - i;
-        if (rem > 0) {
-            short[] tail = Arrays.copyOfRange(voicedSeg, i, voicedSeg.length);
-            out.add(embedFromI16(tail));
-        }
+    /** Start offsets of the slices sliceI16(x, win, hop) returns, in the same order. */
+    private static int[] sliceStarts(int n, int win, int hop) {
+        if (n == 0 || win <= 0) return new int[0];
+        int count = 0, i = 0;
+        while (i + win <= n) { count++; i += hop; }
+        if (n - i > 0) count++;
+        int[] out = new int[count];
+        i = 0;
+        for (int k = 0; k < count; k++) { out[k] = i; i += hop; }
         return out;
     }
 
-    private List<short[]> sliceI16(short[] x, int win, int hop) {
-        ArrayList<short[]> out = new ArrayList<>();
-        if (x.length == 0 || win <= 0) return out;
+    /** Views of x: full windows every hop, then the remainder (if any) as a shorter last slice. */
+    private List<AudioView> sliceI16(AudioView x, int win, int hop) {
+        ArrayList<AudioView> out = new ArrayList<>();
+        if (x.len == 0 || win <= 0) return out;
         int i = 0;
-        while (i + win <= x.length) {
-            out.add(Arrays.copyOfRange(x, i, i + win));
+        while (i + win <= x.len) {
+            out.add(x.sub(i, win));
             i += hop;
         }
-        int rem = x.length - i;
+        int rem = x.len - i;
         if (rem > 0) {
-            out.add(Arrays.copyOfRange(x, i, x.length));
+            out.add(x.sub(i, rem));
         }
         return out;
     }
 
     // ---------- Segmentation helpers ----------
-    private List<short[]> segmentOffline(short[] pcm) {
-        List<short[]> segs = new ArrayList<>();
-        ShortArray fullB = new ShortArray();
-        ShortArray voicedB = new ShortArray();
-        Deque<short[]> pr = new ArrayDeque<>();
-        int silence = 0;
-        State st = State.IDLE;
+    private List<AudioView> segmentOffline(AudioView pcm) {
+        if (offlineSegmenter == null) offlineSegmenter = new StreamingSegmenter(vad, cfg, true, false);
+        StreamingSegmenter sg = offlineSegmenter;
+        sg.reset();
+        List<AudioView> segs = new ArrayList<>();
         int i = 0;
-        while (i < pcm.length) {
-            int take = Math.min(vadChunk, pcm.length - i);
-            short[] block = Arrays.copyOfRange(pcm, i, i + take); i += take;
-            if (block.length < vadChunk) block = padTo(block, vadChunk);
-            float p = vad.feed(block);
-
-            if (st == State.IDLE) {
-                pr.addLast(block);
-                while (pr.size() > cfg.prerollFrames) pr.removeFirst();
-                if (p >= cfg.onThr) {
-                    st = State.ACTIVE;
-                    concatDequeInto(fullB, pr);
-                    concatDequeInto(voicedB, pr);
-                    fullB.append(block);
-                    voicedB.append(block);
-                    silence = 0;
-                }
-            } else {
-                fullB.append(block);
-                if (p >= cfg.offThr) {
-                    voicedB.append(block);
-                    silence = 0;
-                } else {
-                    silence += vadChunk;
-                    if (silence >= silenceAfterSamps) {
-                        segs.add(voicedB.toArray());
-                        st = State.IDLE; pr.clear(); fullB.clear(); voicedB.clear(); silence = 0;
-                    }
-                }
-            }
+        while (i < pcm.len) {
+            int take = Math.min(vadChunk, pcm.len - i);
+            if (sg.step(pcm.a, pcm.off + i, take) == StreamingSegmenter.Event.CLOSED) segs.add(sg.copySegment());
+            i += take;
         }
-        if (st == State.ACTIVE && voicedB.size() >= secondsToSamps(cfg.minEmbedSec))
-            segs.add(voicedB.toArray());
+        if (sg.flush() && sg.voicedSamples() >= secondsToSamps(cfg.minEmbedSec))
+            segs.add(sg.copySegment());
+        sg.reset();
         return segs;
     }
 
     private void resetSegState() {
-        state = State.IDLE;
-        preroll.clear();
-        full.clear();
-        voiced.clear();
-        accumulatedSilence = 0;
+        if (spec != null) spec.reset(); // before the segmenter rewinds: the worker reads its buffer
+        segmenter.reset();
+        voicedSeen = 0;
+        uttMemo = null;
+        provNextEmit = 0;
+        provNextWin = 0;
+        provRows.clear();
+        provTargets = null;
+        provLabels = null;
+        if (voicedFeats != null) voicedFeats.reset();
     }
 
-    private static short[] padTo(short[] x, int n) {
-        short[] y = new short[n];
-        System.arraycopy(x, 0, y, 0, x.length);
-        return y;
-    }
-    private static void concatDequeInto(ShortArray dst, Deque<short[]> q) {
-        for (short[] b : q) dst.append(b);
-    }
 
     private static void ensureFinite(float[] v, String tag) {
         for (float x : v) if (!Float.isFinite(x))
             throw new IllegalStateException(tag + " has non-finite values");
     }
 
-    private float[] embedFromI16(short[] seg) throws Exception {
+    private float[] embedFromI16(AudioView seg) throws Exception {
         seg = ensureMinSamplesForModel(seg); // ensures >= ~655 ms @16k
+        return embedRange(seg.a, seg.off, seg.len);
+    }
 
-        embedder.resetStream();
-        embedder.acceptWaveform(seg);
-        embedder.inputFinished();
-        float[] e = embedder.computeEmbedding();
+    private float[] embedRange(short[] seg, int off, int len) throws Exception {
+        float[] e = embedder.embedOnce(seg, off, len); // serialized with the speculative worker
         if (e == null || e.length == 0) throw new IllegalStateException("Empty embedding");
         ensureFinite(e, "embedding");
         l2normInPlace(e);
         return e;
     }
 
+    /**
+     * Embed all slices of one strategy in batched runs: frame views of feats go through one batched
+     * call, the remaining slices (padded to the model minimum) through another. Windows already in
+     * memo (nullable) are not embedded again; new unpadded ones are added to it.
+     */
+    private float[][] embedSlices(List<AudioView> slices, int[] starts, int[] lens, FbankStream feats,
+                                  EmbMemo memo) throws Exception {
+        int S = slices.size();
+        float[][] embs = new float[S][];
+        boolean[] memoize = new boolean[S], hit = new boolean[S];
+        int[] sf = new int[S];
+        int nViews = 0;
+        for (int i = 0; i < S; ++i) {
+            AudioView sl = slices.get(i);
+            int len = (lens != null) ? lens[i] : sl.len;
+            memoize[i] = (memo != null && len == sl.len);
+            if (memoize[i]) embs[i] = memo.get(starts[i], len);
+            hit[i] = (embs[i] != null);
+            if (hit[i]) { sf[i] = -1; continue; }
+            sf[i] = viewStartFrame(sl, starts[i], len, feats);
+            if (sf[i] >= 0) nViews++;
+        }
+
+        int[] vIdx = new int[nViews], vStart = new int[nViews], vLen = new int[nViews];
+        List<AudioView> pcm = new ArrayList<>();
+        List<Integer> pIdx = new ArrayList<>();
+        for (int i = 0, v = 0; i < S; ++i) {
+            AudioView sl = slices.get(i);
+            if (hit[i]) continue;
+            if (sf[i] >= 0) {
+                vIdx[v] = i; vStart[v] = sf[i];
+                vLen[v] = feats.framesFor((lens != null) ? lens[i] : sl.len);
+                v++;
+            } else {
+                pIdx.add(i);
+                pcm.add(ensureMinSamplesForModel(sl));
+            }
+        }
+        if (nViews > 0) {
+            float[][] e = embedder.computeEmbeddingsFromFeatures(feats, vStart, vLen, feats.framesFor(minModelSamps()));
+            for (int v = 0; v < nViews; ++v) embs[vIdx[v]] = e[v];
+        }
+        if (!pcm.isEmpty()) {
+            float[][] e = embedder.embedBatch(pcm);
+            for (int j = 0; j < e.length; ++j) embs[pIdx.get(j)] = e[j];
+        }
+        for (int i = 0; i < S; ++i) {
+            float[] e = embs[i];
+            if (hit[i]) continue; // already checked and normalized
+            if (e == null || e.length == 0) throw new IllegalStateException("Empty embedding");
+            ensureFinite(e, "embedding");
+            l2normInPlace(e);
+            if (memoize[i]) memo.put(starts[i], slices.get(i).len, e);
+        }
+        return embs;
+    }
+
+    /**
+     * Start frame of the feats view covering voicedSeg[start, start+len), or -1 to embed the slice from PCM.
+     * Exact mode: only a frame-aligned, unpadded window takes its frames straight from feats (identical
+     * to recomputing Fbank on the slice). Pyramid mode: every window is a view, start snapped to the
+     * nearest frame and short windows loop-padded in the frame domain.
+     */
+    private int viewStartFrame(AudioView slice, int start, int len, FbankStream feats) {
+        if (feats == null || start < 0 || start + len > feats.samples()) return -1;
+
+        int shift = feats.frameShift();
+        int n = feats.framesFor(len);
+        int sf;
+        if (cfg.featurePyramid) {
+            sf = Math.min(Math.round(start / (float) shift), feats.frames() - n);
+        } else {
+            if (start % shift != 0 || len != slice.len || len < minModelSamps()) return -1;
+            sf = start / shift;
+        }
+        if (n <= 0 || sf < 0 || sf + n > feats.frames()) return -1;
+        return sf;
+    }
+
     private static float[] meanOfRows(float[][] m) {
         int rows = m.length, cols = m[0].length;
         float[] out = new float[cols];
@@ -544,28 +877,19 @@ public final class SpeakerIdEngine implements AutoCloseable {
         for (int i = 0; i < v.length; ++i) v[i] *= inv;
     }
 
-    private static short[] loopOrPad(short[] x, int want) {
-        if (x.length >= want) return Arrays.copyOf(x, want);
-        if (x.length == 0) return new short[want];
-        short[] y = new short[want]; int i = 0;
-        while (i < want) {
-            int take = Math.min(x.length, want - i);
-            System.arraycopy(x, 0, y, i, take); i += take;
-        }
-        return y;
-    }
-
     private int secondsToSamps(float s) { return (int)Math.round(s * cfg.rateHz); }
 
-    private short[] ensureMinSamplesForModel(short[] x) {
-        // For 16kHz, 25ms window, 10ms hop, 64 frames ≈ 25ms + 63*10ms ≈ 655ms
-        int want = secondsToSamps(0.655f);
-        if (x.length >= want) return x;
-        short[] y = loopOrPad(x, want); // repeats to fill (or pads zeros if empty)
+    // For 16kHz, 25ms window, 10ms hop, 64 frames ≈ 25ms + 63*10ms ≈ 655ms
+    private int minModelSamps() { return secondsToSamps(0.655f); }
+
+    private AudioView ensureMinSamplesForModel(AudioView x) {
+        int want = minModelSamps();
+        if (x.len >= want) return x;
+        AudioView y = x.loopOrPad(want); // repeats to fill (or pads zeros if empty)
         if (cfg.debugVadFrames) {
             Log.w(TAG, String.format(java.util.Locale.US,
                     "[EMB] padded slice from %d→%d samp (~%d ms) to satisfy 64-frame min",
-                    x.length, y.length, (int)(1000L * y.length / cfg.rateHz)));
+                    x.len, y.len, (int)(1000L * y.len / cfg.rateHz)));
         }
         return y;
     }
@@ -573,6 +897,14 @@ public final class SpeakerIdEngine implements AutoCloseable {
     // ---------- Persistence (mean & cluster) ----------
     private void ensureMeanLoaded() throws IOException {
         if (meanVec != null) return;
+        if (store != null) {
+            SpeakerProfileStore.Profile p = store.get(cfg.profileName);
+            if (p == null || !p.hasMean) throw new IllegalStateException("Mean embedding not found. Run enrollment first.");
+            meanVec = p.mean();
+            l2normInPlace(meanVec);
+            meanCount = Math.max(1, p.count);
+            return;
+        }
         if (cfg.meanEmbNpy != null && cfg.meanEmbNpy.exists()) {
             float[] v = loadMeanFlexible(cfg.meanEmbNpy, /*expectedD*/ -1);
             meanVec = v;
@@ -634,6 +966,82 @@ public final class SpeakerIdEngine implements AutoCloseable {
         }
     }
 
+    // ---------- Persistence (profile store) ----------
+    private void loadFromStore() {
+        SpeakerProfileStore.Profile p = store.get(cfg.profileName);
+        if (p == null) {
+            // first run with the store: take over existing .npy targets (the files are left in place)
+            loadMeanIfExists();
+            loadClusterIfExists();
+            if (meanVec != null || cluster != null) {
+                try {
+                    store.put(cfg.profileName, meanVec, meanCount, cluster);
+                    Log.i(TAG, "Migrated .npy targets into profile '" + cfg.profileName + "' of " + cfg.profileStore);
+                } catch (Exception e) {
+                    Log.w(TAG, "Migration to profile store failed; using .npy targets for this run. " + e);
+                }
+            }
+            return;
+        }
+        meanVec = p.mean();
+        if (meanVec != null) l2normInPlace(meanVec);
+        meanCount = p.hasMean ? Math.max(1, p.count) : 0;
+        cluster = p.rows();
+        if (cluster != null) for (float[] r : cluster) l2normInPlace(r);
+        Log.i(TAG, "Loaded profile '" + cfg.profileName + "': D=" + p.dim + " K=" + p.rows + " count=" + p.count);
+    }
+
+    /** Enrollment with the profile store: one copy-on-write commit, verified from the new mapping. */
+    private OnboardingResult enrollToStore(float[][] cl) throws IOException {
+        final int K = cl.length, D = cl[0].length;
+        float[] mean = meanOfRows(cl);
+        l2normInPlace(mean);
+        store.put(cfg.profileName, mean, K, cl);
+
+        SpeakerProfileStore.Profile p = store.get(cfg.profileName);
+        if (p == null || !p.hasMean || p.rows != K || p.dim != D) {
+            throw new IOException("Profile '" + cfg.profileName + "' shape mismatch after write, expected " + K + "x" + D);
+        }
+        float[] mean2 = p.mean();
+        for (float x : mean2) {
+            if (!Float.isFinite(x)) throw new IOException("Mean contains non-finite");
+        }
+        this.cluster = p.rows();
+        this.meanVec = mean2;
+        this.meanCount = K;
+        Log.i(TAG, "[ONBOARD] success: K=" + K + " D=" + D + " profile='" + cfg.profileName + "' in " + cfg.profileStore);
+        return new OnboardingResult(K, D);
+    }
+
+    /** Write mean + count where the targets live (profile store, or .npy + .count sidecar). */
+    private void persistMean(float[] mean, int count) throws IOException {
+        if (store != null) {
+            store.putMean(cfg.profileName, mean, count);
+            return;
+        }
+        // Persist as 1-D vector (fast path; readers handle both)
+        try {
+            NpyUtil.saveVectorFloat32Atomic(cfg.meanEmbNpy, mean);
+        } catch (NoSuchMethodError | UnsupportedOperationException ignore) {
+            NpyUtil.saveVectorFloat32(cfg.meanEmbNpy, mean);
+        }
+        writeCountSidecar(cfg.meanEmbNpy, count);
+    }
+
+    /** Profile-store mode: remove this engine's profile (the .npy files are the caller's). */
+    void deleteStoredTargets() {
+        if (store == null) return;
+        try {
+            store.remove(cfg.profileName);
+        } catch (IOException e) {
+            Log.w(TAG, "[RESET] profile store remove failed: " + e);
+        }
+    }
+
+    boolean hasStoredTargets() { return store != null && store.has(cfg.profileName); }
+
+    SpeakerProfileStore profileStore() { return store; }
+
     /** Write mean as [1,D] (row matrix) for robust reload across loaders. */
     private void saveMeanAsRowMatrix(float[] mean) throws IOException {
         float[][] row = new float[1][mean.length];
@@ -716,9 +1124,24 @@ public final class SpeakerIdEngine implements AutoCloseable {
     }
 
     private static File countFile(File meanNpy) { return new File(meanNpy.getAbsolutePath() + ".count"); }
+    /** Temp file + rename, like the .npy writes: a reader sees the old count or the new one. */
     private static void writeCountSidecar(File meanNpy, int count) throws IOException {
-        try (Writer w = new OutputStreamWriter(new FileOutputStream(countFile(meanNpy)), "UTF-8")) {
+        File dest = countFile(meanNpy);
+        File tmp = new File(dest.getAbsolutePath() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp);
+             Writer w = new OutputStreamWriter(fos, "UTF-8")) {
             w.write(Integer.toString(count));
+            w.flush();
+            fos.getFD().sync();
+        }
+        if (!tmp.renameTo(dest)) {
+            //noinspection ResultOfMethodCallIgnored
+            dest.delete();
+            if (!tmp.renameTo(dest)) {
+                //noinspection ResultOfMethodCallIgnored
+                tmp.delete();
+                throw new IOException("renameTo failed for " + dest);
+            }
         }
     }
     private static int readCountSidecar(File meanNpy, int def) {
@@ -755,6 +1178,7 @@ public final class SpeakerIdEngine implements AutoCloseable {
         return m; // caller will validate and throw if still wrong
     }
 
+    /** Update the in-memory mean; with write-behind the files follow on the persist thread. */
     private void addToRunningMean(float[] newEmbUnit) throws IOException {
         if (meanVec == null) {
             meanVec = Arrays.copyOf(newEmbUnit, newEmbUnit.length);
@@ -768,19 +1192,20 @@ public final class SpeakerIdEngine implements AutoCloseable {
             meanVec = out; meanCount = n + 1;
         }
 
-        // Persist as 1-D vector (fast path; readers handle both)
-        try {
-            NpyUtil.saveVectorFloat32Atomic(cfg.meanEmbNpy, meanVec);
-        } catch (NoSuchMethodError | UnsupportedOperationException ignore) {
-            NpyUtil.saveVectorFloat32(cfg.meanEmbNpy, meanVec);
+        if (meanWriter != null) {
+            meanWriter.submit(meanVec, meanCount);
+            Log.i(TAG, "[ADAPT] Added sample → new_count=" + meanCount + " (write-behind)");
+            return;
         }
 
-        writeCountSidecar(cfg.meanEmbNpy, meanCount);
-        Log.i(TAG, "[ADAPT] Added sample → new_count=" + meanCount + " saved: " + cfg.meanEmbNpy);
+        persistMean(meanVec, meanCount);
+        Log.i(TAG, "[ADAPT] Added sample → new_count=" + meanCount + " saved: "
+                + (store != null ? cfg.profileStore + "#" + cfg.profileName : cfg.meanEmbNpy));
     }
 
     /** <— THIS IS THE API YOUR SpeakerIdApi CALLS */
     public void resetTargetsInMemory() {
+        if (meanWriter != null) meanWriter.discard();
         this.meanVec = null;
         this.meanCount = 0;
         this.cluster = null;
@@ -788,17 +1213,16 @@ public final class SpeakerIdEngine implements AutoCloseable {
         Log.i(TAG, "[RESET] Cleared in-memory mean/cluster.");
     }
 
-    @Override public void close() {
-        try { embedder.close(); } catch (Exception ignore) {}
+    /** Persist adaptation updates still pending. wait=false only schedules the write (UI thread). */
+    public void flushPendingWrites(boolean wait) {
+        if (meanWriter == null) return;
+        if (wait) meanWriter.flush();
+        else meanWriter.flushAsync();
     }
 
-    // ---------- Tiny ShortArray helper ----------
-    private static final class ShortArray {
-        short[] a = new short[0]; int n = 0;
-        void clear(){ n=0; }
-        void append(short[] b){ ensure(n+b.length); System.arraycopy(b,0,a,n,b.length); n+=b.length; }
-        short[] toArray(){ return java.util.Arrays.copyOf(a,n); }
-        int size(){ return n; }
-        private void ensure(int m){ if(a.length>=m)return; a=java.util.Arrays.copyOf(a, Math.max(m,a.length*2+1024)); }
+    @Override public void close() {
+        if (meanWriter != null) meanWriter.close();
+        if (spec != null) spec.close();
+        try { embedder.close(); } catch (Exception ignore) {}
     }
 }
@@ -24,6 +24,11 @@ public final class SpeakerIdStorage {
         return new File(ctx.getFilesDir(), "speaker_emb_cluster.npy");
     }
 
+    /** Single-file profile store (cfg.useProfileStore); holds every profile of the app. */
+    public static File defaultProfileStore(Context ctx) {
+        return new File(ctx.getFilesDir(), "speaker_profiles.bin");
+    }
+
     /** Returns true if both mean and cluster files exist. */
     public static boolean hasDefaultTargets(Context ctx) {
         return defaultMeanEmbFile(ctx).exists() && defaultClusterFile(ctx).exists();
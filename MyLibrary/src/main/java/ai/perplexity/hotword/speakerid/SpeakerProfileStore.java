@@ -0,0 +1,296 @@
+package ai.perplexity.hotword.speakerid;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * All speaker targets in one file, memory-mapped read-only. Replaces per-profile .npy files plus
+ * .count sidecars: startup is one open + one map, and a profile is a view into the mapping.
+ *
+ * Layout (little-endian, every section 64-byte aligned):
+ * <pre>
+ *   header  64 B   magic "SPKP", version, profile count, generation, file length, CRC32 of [64, length)
+ *   index   64 B per profile: name (UTF-8, &lt;= 32 B), dim, rows, count, flags, block offset
+ *   blocks  per profile: [mean (dim floats) if FLAG_MEAN] + rows x dim cluster floats
+ * </pre>
+ * Writes are copy-on-write: the whole image is rebuilt from the current mapping plus the change,
+ * written to a temp file, fsynced, renamed over the store (directory fsynced) and mapped again.
+ * Profiles handed out earlier keep reading the old mapping, so readers never see a torn update.
+ * A store that fails to parse is renamed aside (.corrupt-&lt;millis&gt;) before anything is written; one
+ * from a newer VERSION, or one that cannot be moved, makes the store refuse writes.
+ * One instance per file per process ({@link #open}); methods are thread-safe.
+ */
+final class SpeakerProfileStore {
+    private static final String TAG = "SpeakerProfileStore";
+    private static final int MAGIC = 0x504B5053;     // "SPKP" read as little-endian int
+    private static final int VERSION = 1;
+    private static final int ALIGN = 64;
+    private static final int HEADER = 64;
+    private static final int ENTRY = 64;
+    private static final int NAME_BYTES = 32;
+    private static final int FLAG_MEAN = 1;
+
+    private static final Map<String, SpeakerProfileStore> OPEN = new HashMap<>();
+
+    /** Read-only view of one stored profile; stays valid after later writes to the store. */
+    static final class Profile {
+        final String name;
+        final int dim;
+        final int rows;
+        final int count;
+        final boolean hasMean;
+        private final FloatBuffer data;   // [mean] + rows x dim, position 0
+
+        Profile(String name, int dim, int rows, int count, boolean hasMean, FloatBuffer data) {
+            this.name = name;
+            this.dim = dim;
+            this.rows = rows;
+            this.count = count;
+            this.hasMean = hasMean;
+            this.data = data;
+        }
+
+        /** Zero-copy view: the mean (if any) followed by the cluster rows. */
+        FloatBuffer data() { return data.duplicate(); }
+
+        float[] mean() {
+            if (!hasMean) return null;
+            float[] m = new float[dim];
+            data.duplicate().get(m);
+            return m;
+        }
+
+        /** Cluster rows as a KxD copy, or null when the profile has none. */
+        float[][] rows() {
+            if (rows == 0) return null;
+            FloatBuffer d = data.duplicate();
+            if (hasMean) d.position(dim);
+            float[][] out = new float[rows][dim];
+            for (float[] r : out) d.get(r);
+            return out;
+        }
+    }
+
+    private final File file;
+    private Map<String, Profile> profiles = new LinkedHashMap<>();
+    private long generation = 0;
+    private String readOnlyReason = null;   // non-null: the file on disk must not be replaced
+
+    private SpeakerProfileStore(File file) {
+        this.file = file;
+    }
+
+    /** The process-wide store for file, mapped on first use. */
+    static SpeakerProfileStore open(File file) {
+        String key = file.getAbsolutePath();
+        synchronized (OPEN) {
+            SpeakerProfileStore s = OPEN.get(key);
+            if (s == null) {
+                s = new SpeakerProfileStore(file);
+                s.map();
+                OPEN.put(key, s);
+            }
+            return s;
+        }
+    }
+
+    synchronized Profile get(String name) { return profiles.get(name); }
+
+    synchronized boolean has(String name) { return profiles.containsKey(name); }
+
+    /** Replace (or add) a profile. mean may be null, rows may be null/empty. */
+    synchronized void put(String name, float[] mean, int count, float[][] rows) throws IOException {
+        int dim = (mean != null) ? mean.length : (rows != null && rows.length > 0 ? rows[0].length : 0);
+        if (dim == 0) throw new IllegalArgumentException("empty profile: " + name);
+        int k = (rows == null) ? 0 : rows.length;
+        FloatBuffer fb = FloatBuffer.allocate((mean != null ? dim : 0) + k * dim);
+        if (mean != null) fb.put(mean);
+        for (int r = 0; r < k; ++r) {
+            if (rows[r].length != dim) throw new IllegalArgumentException("row " + r + " dim " + rows[r].length + " vs " + dim);
+            fb.put(rows[r]);
+        }
+        fb.flip();
+        Map<String, Profile> next = new LinkedHashMap<>(profiles);
+        next.put(name, new Profile(name, dim, k, count, mean != null, fb));
+        commit(next);
+    }
+
+    /** Replace the mean and count of a profile, keeping its cluster rows. */
+    synchronized void putMean(String name, float[] mean, int count) throws IOException {
+        Profile p = profiles.get(name);
+        float[][] rows = (p != null && p.dim == mean.length) ? p.rows() : null;
+        put(name, mean, count, rows);
+    }
+
+    synchronized void remove(String name) throws IOException {
+        if (!profiles.containsKey(name)) return;
+        Map<String, Profile> next = new LinkedHashMap<>(profiles);
+        next.remove(name);
+        commit(next);
+    }
+
+    // ---------- file format ----------
+
+    /** Map the file; false if it exists but could not be read (then it was moved aside or writes are refused). */
+    private boolean map() {
+        profiles = new LinkedHashMap<>();
+        if (!file.exists()) return true;
+        try (FileInputStream fis = new FileInputStream(file)) {
+            FileChannel ch = fis.getChannel();
+            long size = ch.size();
+            if (size < HEADER) throw new IOException("too small: " + size + " bytes");
+            ByteBuffer bb = ch.map(FileChannel.MapMode.READ_ONLY, 0, size).order(ByteOrder.LITTLE_ENDIAN);
+            if (bb.getInt(0) != MAGIC) throw new IOException("bad magic");
+            if (bb.getInt(4) > VERSION) {
+                readOnlyReason = "store " + file + " has newer version " + bb.getInt(4) + ", not overwriting it";
+                Log.e(TAG, readOnlyReason);
+                return false;
+            }
+            if (bb.getInt(4) != VERSION) throw new IOException("unsupported version " + bb.getInt(4));
+            int n = bb.getInt(8);
+            long gen = bb.getLong(16);
+            long length = bb.getLong(24);
+            if (length != size || n < 0 || HEADER + (long) n * ENTRY > size) throw new IOException("bad length/count");
+            CRC32 crc = new CRC32();
+            ByteBuffer body = bb.duplicate();
+            body.position(HEADER);
+            crc.update(body);
+            if (bb.getInt(32) != (int) crc.getValue()) throw new IOException("CRC mismatch");
+
+            Map<String, Profile> out = new LinkedHashMap<>();
+            for (int i = 0; i < n; ++i) {
+                int e = HEADER + i * ENTRY;
+                byte[] nb = new byte[NAME_BYTES];
+                for (int j = 0; j < NAME_BYTES; ++j) nb[j] = bb.get(e + j);
+                int len = 0;
+                while (len < NAME_BYTES && nb[len] != 0) len++;
+                String name = new String(nb, 0, len, StandardCharsets.UTF_8);
+                int dim = bb.getInt(e + 32);
+                int rows = bb.getInt(e + 36);
+                int count = bb.getInt(e + 40);
+                int flags = bb.getInt(e + 44);
+                long off = bb.getLong(e + 48);
+                boolean hasMean = (flags & FLAG_MEAN) != 0;
+                long floats = (long) (hasMean ? 1 + rows : rows) * dim;
+                if (dim <= 0 || rows < 0 || off % ALIGN != 0 || off + floats * 4 > size) {
+                    throw new IOException("bad index entry " + i + " (" + name + ")");
+                }
+                ByteBuffer blk = bb.duplicate();
+                blk.position((int) off);
+                blk.limit((int) (off + floats * 4));
+                FloatBuffer fb = blk.slice().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().asReadOnlyBuffer();
+                out.put(name, new Profile(name, dim, rows, count, hasMean, fb));
+            }
+            profiles = out;
+            generation = gen;
+            Log.i(TAG, "mapped " + file.getName() + ": " + n + " profile(s), gen=" + gen + ", " + size + " B");
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "unreadable store " + file + ": " + e);
+            moveAside();
+            return false;
+        }
+    }
+
+    /** Keep an unreadable store for inspection/recovery instead of letting the next write replace it. */
+    private void moveAside() {
+        File aside = new File(file.getPath() + ".corrupt-" + System.currentTimeMillis());
+        if (file.renameTo(aside)) {
+            Log.e(TAG, "moved unreadable store to " + aside.getName());
+        } else {
+            readOnlyReason = "unreadable store " + file + " could not be moved aside";
+            Log.e(TAG, readOnlyReason);
+        }
+    }
+
+    private void commit(Map<String, Profile> next) throws IOException {
+        if (readOnlyReason != null) throw new IOException(readOnlyReason);
+        ByteBuffer img = encode(next, generation + 1);
+        File dir = file.getParentFile();
+        if (dir != null && !dir.exists()) dir.mkdirs();
+        File tmp = File.createTempFile(file.getName(), ".tmp", dir);
+        try (FileOutputStream fos = new FileOutputStream(tmp)) {
+            FileChannel ch = fos.getChannel();
+            while (img.hasRemaining()) ch.write(img);
+            ch.force(false);
+        } catch (IOException e) {
+            //noinspection ResultOfMethodCallIgnored
+            tmp.delete();
+            throw e;
+        }
+        if (!tmp.renameTo(file)) {
+            // fallback: delete then rename
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+            if (!tmp.renameTo(file)) {
+                //noinspection ResultOfMethodCallIgnored
+                tmp.delete();
+                throw new IOException("renameTo failed for " + file);
+            }
+        }
+        if (dir != null) {
+            try (FileChannel dch = FileChannel.open(dir.toPath(), StandardOpenOption.READ)) {
+                dch.force(true);
+            } catch (IOException e) {
+                Log.w(TAG, "dir fsync: " + e);
+            }
+        }
+        if (!map()) {
+            profiles = next;   // keep serving what was written; the bad file is out of the way
+            throw new IOException("store did not reload after write: " + file);
+        }
+    }
+
+    private static ByteBuffer encode(Map<String, Profile> ps, long gen) {
+        int n = ps.size();
+        long off = align(HEADER + (long) n * ENTRY);
+        long total = off;
+        for (Profile p : ps.values()) total += align((long) p.data.limit() * 4);
+
+        ByteBuffer bb = ByteBuffer.allocate((int) total).order(ByteOrder.LITTLE_ENDIAN);
+        int i = 0;
+        for (Profile p : ps.values()) {
+            int e = HEADER + i++ * ENTRY;
+            byte[] nb = p.name.getBytes(StandardCharsets.UTF_8);
+            if (nb.length > NAME_BYTES) throw new IllegalArgumentException("profile name too long: " + p.name);
+            for (int j = 0; j < nb.length; ++j) bb.put(e + j, nb[j]);
+            bb.putInt(e + 32, p.dim);
+            bb.putInt(e + 36, p.rows);
+            bb.putInt(e + 40, p.count);
+            bb.putInt(e + 44, p.hasMean ? FLAG_MEAN : 0);
+            bb.putLong(e + 48, off);
+
+            ByteBuffer blk = bb.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            blk.position((int) off);
+            blk.asFloatBuffer().put(p.data());
+            off += align((long) p.data.limit() * 4);
+        }
+
+        bb.putInt(0, MAGIC);
+        bb.putInt(4, VERSION);
+        bb.putInt(8, n);
+        bb.putLong(16, gen);
+        bb.putLong(24, total);
+        CRC32 crc = new CRC32();
+        crc.update(bb.array(), HEADER, (int) total - HEADER);
+        bb.putInt(32, (int) crc.getValue());
+        bb.position(0);
+        return bb;
+    }
+
+    private static long align(long x) { return (x + ALIGN - 1) / ALIGN * ALIGN; }
+}
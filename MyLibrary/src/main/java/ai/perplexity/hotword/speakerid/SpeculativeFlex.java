@@ -0,0 +1,160 @@
+package ai.perplexity.hotword.speakerid;
+
+import android.util.Log;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Embeds FLEX windows of an utterance that is still open, on one background thread.
+ * A window [k*hop, k*hop+win) of the voiced buffer never changes once it is complete, so it can be
+ * embedded before the segment finalizes; at finalization only tail windows are left to compute.
+ *
+ * offer/drain/reset are called from the pushVerify thread. Windows are views of the voiced buffer:
+ * the caller must {@link #reset()} before it clears or overwrites that buffer (drained windows are
+ * queued again by the next offer).
+ * Embed must be safe to call while the caller uses the same embedder (SpeakerEmbedderOrt serializes
+ * its inference calls).
+ */
+final class SpeculativeFlex implements Closeable {
+    private static final String TAG = "SpeculativeFlex";
+
+    /** Embeds one window (padded as needed) into an L2-normalized vector; runs on the worker. */
+    interface Embed {
+        float[] embed(AudioView window) throws Exception;
+    }
+
+    private final int[] wins;
+    private final int[] hops;           // Integer.MAX_VALUE: single window at 0
+    private final long[] nextStart;     // per window size: first start not yet submitted
+    private final Embed embed;
+    private final ExecutorService worker;
+
+    private final ConcurrentHashMap<Long, float[]> done = new ConcurrentHashMap<>();
+    private final Set<Long> submitted = new HashSet<>();
+    private final List<Job> pending = new ArrayList<>();
+    private final List<Job> requeue = new ArrayList<>();   // cancelled by drain, resubmitted by offer
+    private long offered = 0;
+    private long used = 0;
+
+    SpeculativeFlex(int[] wins, int[] hops, Embed embed) {
+        this.wins = wins;
+        this.hops = hops;
+        this.nextStart = new long[wins.length];
+        this.embed = embed;
+        this.worker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "SpeakerId-speculative");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /** One submitted window. */
+    private static final class Job {
+        final int start, len;
+        Future<?> future;
+        Job(int start, int len) { this.start = start; this.len = len; }
+    }
+
+    static long key(int start, int len) { return ((long) start << 32) | (len & 0xffffffffL); }
+
+    /** Queue every window that became complete now that voiced holds a[0, n), and any drained ones. */
+    void offer(short[] a, int n) {
+        for (Iterator<Job> it = pending.iterator(); it.hasNext(); ) {
+            if (it.next().future.isDone()) it.remove();
+        }
+        if (!requeue.isEmpty()) {
+            for (Job j : requeue) {
+                // cancel(false) also "cancels" the window that was running; it may have finished
+                if (!done.containsKey(key(j.start, j.len))) submit(a, j.start, j.len);
+            }
+            requeue.clear();
+        }
+        for (int s = 0; s < wins.length; s++) {
+            int win = wins[s];
+            if (win <= 0) continue;
+            while (nextStart[s] + win <= n) {
+                int start = (int) nextStart[s];
+                nextStart[s] += hops[s];
+                if (submitted.add(key(start, win))) { // else: same window from another size/hop
+                    submit(a, start, win);
+                    offered++;
+                }
+            }
+        }
+    }
+
+    private void submit(short[] a, final int start, final int len) {
+        final Long k = key(start, len);
+        final AudioView w = new AudioView(a, start, len);
+        Job j = new Job(start, len);
+        j.future = worker.submit(new Runnable() {
+            @Override public void run() {
+                try {
+                    float[] e = embed.embed(w);
+                    if (e != null && e.length > 0) done.put(k, e);
+                } catch (Exception e) {
+                    Log.w(TAG, "speculative embed failed @" + start + "+" + len + ": " + e);
+                }
+            }
+        });
+        pending.add(j);
+    }
+
+    /**
+     * Stop speculating: cancel queued windows and wait for the one in progress. Afterwards the worker
+     * is idle and {@link #get} is stable until the next {@link #offer}, which queues the cancelled
+     * windows again (nextStart is already past them), or {@link #reset()}.
+     */
+    void drain() {
+        if (pending.isEmpty()) return;
+        for (Job j : pending) {
+            if (j.future.cancel(false)) requeue.add(j);
+        }
+        pending.clear();
+        try {
+            worker.submit(new Runnable() { @Override public void run() {} }).get();
+        } catch (Exception e) {
+            Log.w(TAG, "drain: " + e);
+        }
+    }
+
+    /** Embedding of window [start, start+len) if it was computed, else null. */
+    float[] get(int start, int len) {
+        float[] e = done.get(key(start, len));
+        if (e != null) used++;
+        return e;
+    }
+
+    boolean has(int start, int len) { return done.containsKey(key(start, len)); }
+
+    /** Drain and forget the current utterance. */
+    void reset() {
+        drain();
+        requeue.clear();
+        done.clear();
+        submitted.clear();
+        for (int s = 0; s < nextStart.length; s++) nextStart[s] = 0;
+    }
+
+    String stats() {
+        return "[SPEC] offered=" + offered + " used=" + used;
+    }
+
+    @Override public void close() {
+        drain();
+        worker.shutdownNow();
+        Log.i(TAG, stats());
+    }
+}
@@ -0,0 +1,177 @@
+package ai.perplexity.hotword.speakerid;
+
+import android.util.Log;
+
+import java.util.Arrays;
+
+/**
+ * VAD-only segmentation on preallocated storage, shared by pushVerify, segmentOffline and
+ * OnboardingStream. The preroll is a circular buffer of the last prerollFrames chunks; the open
+ * segment lives in one fixed buffer of maxSegmentSec (+ preroll) that is rewound for every segment,
+ * so a segment is always contiguous and handed out as a view. After construction step() allocates
+ * nothing. The full (voiced + silence) audio is only counted: every caller just needs its duration.
+ *
+ * Same decisions as the loops it replaces: the onset chunk is part of the preroll and is appended
+ * once more after it; each non-voiced chunk adds vadChunk to the silence count. When the segment
+ * buffer fills up, cfg.segmentOverflow decides: FINALIZE closes the segment right there (the rest
+ * of that chunk is dropped), TRUNCATE keeps the first maxSegmentSec and drops further voiced audio
+ * until silence closes the segment.
+ * Not thread-safe.
+ */
+final class StreamingSegmenter {
+    private static final String TAG = "StreamingSegmenter";
+
+    enum Event { IDLE, ACTIVE, CLOSED }
+
+    private final Vad vad;
+    private final int vadChunk;
+    private final float onThr, offThr;
+    private final int silenceSoft, silenceHard;
+    private final int minEmbed;
+    private final boolean padAppend;
+    private final SpeakerIdConfig.SegmentOverflow overflow;
+
+    // VAD input: one chunk, zero-padded when short
+    private final short[] block;
+
+    // preroll ring: slot k holds one chunk in pre[k*vadChunk, +preLen[k])
+    private final short[] pre;
+    private final int[] preLen;
+    private int preHead = 0, preCount = 0;
+
+    // open segment
+    private final short[] seg;
+    private int segN = 0;
+    private int fullN = 0;
+    private int silence = 0;
+    private boolean active = false;
+    private boolean closed = false;     // segment() still readable; storage rewinds on next step
+    private boolean overflowed = false;
+
+    /**
+     * padAppend: store the zero-padded VAD chunk (offline/onboarding) instead of the unpadded one.
+     * graceForShort: double the silence limit while the segment is shorter than minEmbedSec.
+     */
+    StreamingSegmenter(Vad vad, SpeakerIdConfig cfg, boolean padAppend, boolean graceForShort) {
+        this.vad = vad;
+        this.vadChunk = cfg.vadChunk;
+        this.onThr = cfg.onThr;
+        this.offThr = cfg.offThr;
+        this.silenceSoft = (int) Math.round(cfg.silenceAfterSec * cfg.rateHz);
+        this.silenceHard = graceForShort ? 2 * silenceSoft : silenceSoft;
+        this.minEmbed = (int) Math.round(cfg.minEmbedSec * cfg.rateHz);
+        this.padAppend = padAppend;
+        this.overflow = (cfg.segmentOverflow != null) ? cfg.segmentOverflow : SpeakerIdConfig.SegmentOverflow.FINALIZE;
+        this.block = new short[vadChunk];
+        int frames = Math.max(0, cfg.prerollFrames);
+        this.pre = new short[frames * vadChunk];
+        this.preLen = new int[frames];
+        int maxSeg = (int) Math.round(Math.max(cfg.minEmbedSec, cfg.maxSegmentSec) * cfg.rateHz);
+        this.seg = new short[maxSeg + (frames + 1) * vadChunk];
+    }
+
+    /** Feed pcm[off, off+len), len <= vadChunk. CLOSED: segment() holds the finished segment. */
+    Event step(short[] pcm, int off, int len) {
+        if (closed) rewind();
+        System.arraycopy(pcm, off, block, 0, len);
+        if (len < vadChunk) Arrays.fill(block, len, vadChunk, (short) 0);
+        float p = vad.feed(block);
+
+        short[] src = padAppend ? block : pcm;
+        int so = padAppend ? 0 : off;
+        int sl = padAppend ? vadChunk : len;
+
+        if (!active) {
+            pushPreroll(src, so, sl);
+            if (p < onThr) return Event.IDLE;
+            active = true;
+            for (int k = 0; k < preCount; k++) {
+                int slot = (preHead + k) % preLen.length;
+                append(pre, slot * vadChunk, preLen[slot]);
+                fullN += preLen[slot];
+            }
+            append(src, so, sl);
+            fullN += sl;
+            silence = 0;
+            return (overflowed && overflow == SpeakerIdConfig.SegmentOverflow.FINALIZE) ? close() : Event.ACTIVE;
+        }
+
+        fullN += sl;
+        if (p >= offThr) {
+            append(src, so, sl);
+            silence = 0;
+            return (overflowed && overflow == SpeakerIdConfig.SegmentOverflow.FINALIZE) ? close() : Event.ACTIVE;
+        }
+        silence += vadChunk;
+        int limit = (segN < minEmbed) ? silenceHard : silenceSoft; // grace window for short follow-up
+        return (silence >= limit) ? close() : Event.ACTIVE;
+    }
+
+    /** End of stream: close an open segment. True if segment() now holds one. */
+    boolean flush() {
+        if (!active) return false;
+        close();
+        return true;
+    }
+
+    boolean isActive() { return active; }
+
+    /** Voiced samples of the open (or just closed) segment: seg[0, voicedSamples()). */
+    short[] buffer() { return seg; }
+    int voicedSamples() { return segN; }
+    int fullSamples() { return fullN; }
+
+    /** The open/just closed segment; valid until the next step() or reset(). */
+    AudioView segment() { return new AudioView(seg, 0, segN); }
+
+    /** Standalone copy of segment(), for callers that keep segments. */
+    AudioView copySegment() { return AudioView.of(Arrays.copyOf(seg, segN)); }
+
+    void reset() {
+        rewind();
+        active = false;
+        silence = 0;
+        preHead = 0;
+        preCount = 0;
+    }
+
+    private Event close() {
+        active = false;
+        closed = true;
+        silence = 0;
+        preHead = 0;
+        preCount = 0;
+        return Event.CLOSED;
+    }
+
+    private void rewind() {
+        segN = 0;
+        fullN = 0;
+        closed = false;
+        overflowed = false;
+    }
+
+    private void pushPreroll(short[] src, int off, int len) {
+        if (preLen.length == 0) return;
+        int slot;
+        if (preCount < preLen.length) {
+            slot = (preHead + preCount) % preLen.length;
+            preCount++;
+        } else {
+            slot = preHead; // overwrite the oldest chunk
+            preHead = (preHead + 1) % preLen.length;
+        }
+        System.arraycopy(src, off, pre, slot * vadChunk, len);
+        preLen[slot] = len;
+    }
+
+    private void append(short[] src, int off, int len) {
+        int n = Math.min(len, seg.length - segN);
+        System.arraycopy(src, off, seg, segN, n);
+        segN += n;
+        if (n < len && !overflowed) {
+            overflowed = true;
+            Log.w(TAG, "segment reached max length (" + seg.length + " samp), overflow=" + overflow);
+        }
+    }
+}
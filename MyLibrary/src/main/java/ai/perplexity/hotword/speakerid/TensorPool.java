@@ -0,0 +1,137 @@
+package ai.perplexity.hotword.speakerid;
+
+import ai.onnxruntime.OnnxTensor;
+import ai.onnxruntime.OrtEnvironment;
+import ai.onnxruntime.OrtException;
+import android.util.Log;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Reusable ORT input tensors, keyed by (role, type, shape).
+ * Each slot owns a direct, native-order buffer and the OnnxTensor wrapping it (ORT uses such a
+ * buffer in place), so a caller refills slot.buf and feeds slot.tensor again: no native allocation
+ * and no copy per run. Slots stay owned by the pool - never close them - and are evicted LRU past
+ * maxSlots. Not thread-safe: one pool per session owner.
+ */
+final class TensorPool implements AutoCloseable {
+    private static final String TAG = "TensorPool";
+    private static final long LOG_EVERY = 1L << 14; // acquisitions between stats logs
+
+    static final class Slot<B extends Buffer> {
+        final OnnxTensor tensor;
+        final B buf;           // position 0, limit = element count on every acquire
+        private Slot(OnnxTensor tensor, B buf) { this.tensor = tensor; this.buf = buf; }
+    }
+
+    private final OrtEnvironment env;
+    private final String owner;
+    private final Map<String, Slot<?>> slots;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    TensorPool(OrtEnvironment env, String owner, final int maxSlots) {
+        this.env = env;
+        this.owner = owner;
+        this.slots = new LinkedHashMap<String, Slot<?>>(16, 0.75f, true) {
+            @Override protected boolean removeEldestEntry(Map.Entry<String, Slot<?>> e) {
+                if (size() <= maxSlots) return false;
+                e.getValue().tensor.close();
+                evictions++;
+                return true;
+            }
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    Slot<FloatBuffer> floats(String role, long[] shape) throws OrtException {
+        return (Slot<FloatBuffer>) acquire(role, 'f', shape);
+    }
+
+    @SuppressWarnings("unchecked")
+    Slot<LongBuffer> longs(String role, long[] shape) throws OrtException {
+        return (Slot<LongBuffer>) acquire(role, 'l', shape);
+    }
+
+    @SuppressWarnings("unchecked")
+    Slot<IntBuffer> ints(String role, long[] shape) throws OrtException {
+        return (Slot<IntBuffer>) acquire(role, 'i', shape);
+    }
+
+    @SuppressWarnings("unchecked")
+    Slot<ShortBuffer> shorts(String role, long[] shape) throws OrtException {
+        return (Slot<ShortBuffer>) acquire(role, 's', shape);
+    }
+
+    private Slot<?> acquire(String role, char type, long[] shape) throws OrtException {
+        String key = role + '/' + type + Arrays.toString(shape);
+        Slot<?> s = slots.get(key);
+        if (s != null) {
+            hits++;
+        } else {
+            misses++;
+            s = create(type, shape);
+            slots.put(key, s);
+        }
+        if (((hits + misses) % LOG_EVERY) == 0) Log.i(TAG, stats());
+        s.buf.clear();
+        return s;
+    }
+
+    private Slot<?> create(char type, long[] shape) throws OrtException {
+        long n = 1;
+        for (long d : shape) n *= d;
+        switch (type) {
+            case 'f': {
+                FloatBuffer b = direct(n, 4).asFloatBuffer();
+                return new Slot<>(OnnxTensor.createTensor(env, b, shape), b);
+            }
+            case 'l': {
+                LongBuffer b = direct(n, 8).asLongBuffer();
+                return new Slot<>(OnnxTensor.createTensor(env, b, shape), b);
+            }
+            case 'i': {
+                IntBuffer b = direct(n, 4).asIntBuffer();
+                return new Slot<>(OnnxTensor.createTensor(env, b, shape), b);
+            }
+            default: {
+                ShortBuffer b = direct(n, 2).asShortBuffer();
+                return new Slot<>(OnnxTensor.createTensor(env, b, shape), b);
+            }
+        }
+    }
+
+    private static ByteBuffer direct(long n, int bytes) {
+        return ByteBuffer.allocateDirect((int) (n * bytes)).order(ByteOrder.nativeOrder());
+    }
+
+    long hits() { return hits; }
+    long misses() { return misses; }
+
+    float hitRate() {
+        long total = hits + misses;
+        return (total == 0) ? 0f : hits / (float) total;
+    }
+
+    String stats() {
+        return String.format(Locale.US, "[POOL] %s hit=%.1f%% (%d/%d) live=%d evicted=%d",
+                owner, 100f * hitRate(), hits, hits + misses, slots.size(), evictions);
+    }
+
+    @Override public void close() {
+        Log.i(TAG, stats());
+        for (Slot<?> s : slots.values()) s.tensor.close();
+        slots.clear();
+    }
+}
@@ -27,6 +27,9 @@ public final class VadAdapter implements Vad, Closeable {
         return det.predict_2(block16k);
     }
 
+    /** Hit rate of the pooled VAD input tensors. */
+    public String tensorPoolStats() { return det.tensorPoolStats(); }
+
     @Override public void close() {
         try { det.close(); } catch (Exception ignore) {}
     }
@@ -12,14 +12,11 @@ import ai.onnxruntime.OrtException;
 public class VadDetector {
     private final VadDetectorOnnx model;
     private String TAG = "KeyWordsDetection VadDetector";
-    float[] audioData;
-    private final float[][] preAllocatedInput = new float[1][];
 
     public VadDetector(Context context, String modelPath
                                 ) throws OrtException {
 
         this.model = new VadDetectorOnnx(context, modelPath);
-        audioData = new float[Constants.FRAME_LENGTH];
         reset();
     }
 
@@ -33,29 +30,23 @@ public class VadDetector {
         for (int i = 0; i < audioData.length; i++) {
             audioData[i] = ((data[i * 2] & 0xff) | (data[i * 2 + 1] << 8)) / 32767.0f;
         }*/
-        if (data.length != audioData.length) {
+        if (data.length != Constants.FRAME_LENGTH) {
             System.out.println("data.legth != Constants.FRAME_LENGTH");
             System.out.println("data.legth == " + data.length);
-            System.out.println("audioData.lenght == " + audioData.length);
-            System.out.println("Constants.FRAME_LENGTH == " + Constants.FRAME_LENGTH);
-            System.out.println("Reallocating audioDate == " + Constants.FRAME_LENGTH);
-            audioData = new float[data.length];
         }
 
-        for (int i = 0; i < audioData.length; i++) {
-            audioData[i] = data[i] / 32767.0f;
-        }
-        preAllocatedInput[0] = audioData;
-
+        // PCM goes straight into the model's pooled input buffer (scaled /32767 there)
         float speechProb = 0.0f;
         try {
-            speechProb = model.call(preAllocatedInput, Constants.SAMPLE_RATE)[0];
+            speechProb = model.callPcm16(data, Constants.SAMPLE_RATE);
         } catch (OrtException e) {
             throw new RuntimeException(e);
         }
         return speechProb;
     }
 
+    public String tensorPoolStats() { return model.tensorPoolStats(); }
+
     public void close() throws OrtException {
         reset();
         model.close();
@@ -27,12 +27,17 @@ import ai.onnxruntime.OrtSession;
 
 public class VadDetectorOnnx {
     private final OrtSession session;
-    private float[][][] h;
-    private float[][][] c;
+    // LSTM state stays native: the previous run's hn/cn outputs are fed back as the next h/c
+    // inputs. prevOut owns them until the following run has completed (or a reset).
+    private OrtSession.Result prevOut = null;
+    private static final int STATE_LAYERS = 2;
+    private static final int STATE_DIM = 64;
     private int lastSr = 0;
     private final long[] srArray = new long[]{16000};
     private final Map<String, OnnxTensor> inputs;
     private final OnnxTensor srTensor;
+    // input and zero-state tensors are pooled per shape (no per-call native alloc)
+    private final TensorPool pool;
     private int lastBatchSize = 0;
     private static final List<Integer> SAMPLE_RATES = Arrays.asList(8000, 16000);
     private String TAG = "KeyWordsDetection VadDetectorOnnx";
@@ -342,19 +347,28 @@ public class VadDetectorOnnx {
         srTensor = OnnxTensor.createTensor(env, LongBuffer.wrap(srArray), new long[]{1});
         inputs = new HashMap<>();
         inputs.put("sr", srTensor);
+        pool = new TensorPool(env, "vad", 16);
     }
 
     void resetStates() {
-        h = new float[2][1][64];
-        c = new float[2][1][64];
+        if (prevOut != null) {
+            prevOut.close();
+            prevOut = null;
+        }
         lastSr = 0;
         lastBatchSize = 0;
     }
 
     public void close() throws OrtException {
+        resetStates();
         session.close();
+        pool.close();
     }
 
+    /** Input-tensor pool hit rate (should sit near 100% with a fixed frame length). */
+    public String tensorPoolStats() { return pool.stats(); }
+
+
     public static class ValidationResult {
         public final float[][] x;
         public final int sr;
@@ -376,55 +390,85 @@ public class VadDetectorOnnx {
 
     public float[] call(float[][] x, int sr) throws OrtException {
         int batchSize = x.length;
+        beginCall(batchSize, sr);
+
+        TensorPool.Slot<FloatBuffer> in = pool.floats("input", new long[]{batchSize, x[0].length});
+        for (float[] row : x) in.buf.put(row);
+        in.buf.rewind();
+
+        FloatBuffer probs = run(in.tensor, batchSize, sr);
+        float[] out = new float[batchSize];
+        probs.get(out);
+        return out;
+    }
+
+    /**
+     * Single-stream fast path: PCM16 goes straight into the pooled direct input buffer (scaled like
+     * VadDetector, /32767) and the speech probability comes back without any Java arrays.
+     */
+    public float callPcm16(short[] pcm, int sr) throws OrtException {
+        beginCall(1, sr);
+        TensorPool.Slot<FloatBuffer> in = pool.floats("input", new long[]{1, pcm.length});
+        for (int i = 0; i < pcm.length; i++) in.buf.put(i, pcm[i] / 32767.0f);
+        return run(in.tensor, 1, sr).get(0);
+    }
 
+    /**
+     * Stateless batched step for callers that keep their own per-stream state (MultiStreamVad).
+     * pcm[b] is one PCM16 frame per stream (all the same length, scaled /32767); h/c hold the
+     * packed state [2, B, 64] and receive hn/cn; probs[b] receives the speech probability.
+     * This detector's own single-stream state is not touched.
+     */
+    void stepBatch(short[][] pcm, int B, float[] h, float[] c, float[] probs) throws OrtException {
+        int n = pcm[0].length;
+        long[] stateShape = new long[]{STATE_LAYERS, B, STATE_DIM};
+        TensorPool.Slot<FloatBuffer> in = pool.floats("batch.input", new long[]{B, n});
+        for (int b = 0; b < B; b++) {
+            short[] x = pcm[b];
+            for (int i = 0; i < n; i++) in.buf.put(b * n + i, x[i] / 32767.0f);
+        }
+        TensorPool.Slot<FloatBuffer> hIn = pool.floats("batch.h", stateShape);
+        TensorPool.Slot<FloatBuffer> cIn = pool.floats("batch.c", stateShape);
+        hIn.buf.put(h, 0, STATE_LAYERS * B * STATE_DIM).rewind();
+        cIn.buf.put(c, 0, STATE_LAYERS * B * STATE_DIM).rewind();
+
+        Map<String, OnnxTensor> feed = new HashMap<>();
+        feed.put("input", in.tensor);
+        feed.put("sr", srTensor);
+        feed.put("h", hIn.tensor);
+        feed.put("c", cIn.tensor);
+        try (OrtSession.Result out = session.run(feed)) {
+            ((OnnxTensor) out.get(0)).getFloatBuffer().get(probs, 0, B);
+            ((OnnxTensor) out.get(1)).getFloatBuffer().get(h, 0, STATE_LAYERS * B * STATE_DIM);
+            ((OnnxTensor) out.get(2)).getFloatBuffer().get(c, 0, STATE_LAYERS * B * STATE_DIM);
+        }
+    }
+
+    private void beginCall(int batchSize, int sr) {
         if (lastBatchSize == 0 || lastSr != sr || lastBatchSize != batchSize) {
-            System.out.println("RESET STATES ??????????????????????");
             resetStates();
         }
+    }
 
-        OrtEnvironment env = OrtEnvironment.getEnvironment();
+    /** One session.run; h/c come from the previous run's outputs (or the zero state after a reset). */
+    private FloatBuffer run(OnnxTensor input, int batchSize, int sr) throws OrtException {
+        if (prevOut == null) {
+            long[] shape = new long[]{STATE_LAYERS, batchSize, STATE_DIM};
+            inputs.put("h", pool.floats("h0", shape).tensor);  // never written: stays zero
+            inputs.put("c", pool.floats("c0", shape).tensor);
+        } else {
+            inputs.put("h", (OnnxTensor) prevOut.get(1));
+            inputs.put("c", (OnnxTensor) prevOut.get(2));
+        }
+        inputs.put("input", input);
 
-        OnnxTensor inputTensor = null;
-        OnnxTensor hTensor = null;
-        OnnxTensor cTensor = null;
-        OrtSession.Result ortOutputs = null;
+        OrtSession.Result out = session.run(inputs);
+        // keep this run's hn/cn alive as the next inputs; the state before it is no longer needed
+        if (prevOut != null) prevOut.close();
+        prevOut = out;
 
-        try {
-            inputTensor = OnnxTensor.createTensor(env, x);
-            hTensor = OnnxTensor.createTensor(env, h);
-            cTensor = OnnxTensor.createTensor(env, c);
-            //srTensor = OnnxTensor.createTensor(env, new long[]{sr});
-
-            //Map<String, OnnxTensor> inputs = new HashMap<>();
-            inputs.put("input", inputTensor);
-            //inputs.put("sr", srTensor);
-            inputs.put("h", hTensor);
-            inputs.put("c", cTensor);
-
-            ortOutputs = session.run(inputs);
-            float[][] output = (float[][]) ortOutputs.get(0).getValue();
-            h = (float[][][]) ortOutputs.get(1).getValue();
-            c = (float[][][]) ortOutputs.get(2).getValue();
-
-            lastSr = sr;
-            lastBatchSize = batchSize;
-            return output[0];
-        } finally {
-            inputs.remove("input");
-            inputs.remove("h");
-            inputs.remove("c");
-            if (inputTensor != null) {
-                inputTensor.close();
-            }
-            if (hTensor != null) {
-                hTensor.close();
-            }
-            if (cTensor != null) {
-                cTensor.close();
-            }
-            if (ortOutputs != null) {
-                ortOutputs.close();
-            }
-        }
+        lastSr = sr;
+        lastBatchSize = batchSize;
+        return ((OnnxTensor) out.get(0)).getFloatBuffer();
     }
 }
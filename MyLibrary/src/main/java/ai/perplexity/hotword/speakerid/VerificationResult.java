@@ -1,5 +1,7 @@
 package ai.perplexity.hotword.speakerid;
 
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 public final class VerificationResult {
@@ -9,12 +11,34 @@ public final class VerificationResult {
     public final String bestStrategy;
     public final String bestTargetLabel;
     public final Map<String, Map<String, Float>> perTargetStrategy;
+    /** Windows served from / added to the per-utterance embedding memo (misses = embeddings computed). */
+    public final int embMemoHits;
+    public final int embMemoMisses;
+    /** FLEX strategies not evaluated (anytime mode stopped early); empty otherwise. */
+    public final List<String> skippedStrategies;
+    /** Mid-utterance result (segment still open); the final result at segment close has false. */
+    public final boolean provisional;
+    /** Provisional only: the running top-k mean cleared cfg.provisionalConfidentScore. */
+    public final boolean confident;
 
     public VerificationResult(float fullSec, float voicedSec, float bestScore,
                               String bestStrategy, String bestTargetLabel,
                               Map<String, Map<String, Float>> perTargetStrategy) {
+        this(fullSec, voicedSec, bestScore, bestStrategy, bestTargetLabel, perTargetStrategy, 0, 0,
+                Collections.<String>emptyList(), false, false);
+    }
+
+    /** Engine-side constructor; its parameters grow with the result, so it stays package-private. */
+    VerificationResult(float fullSec, float voicedSec, float bestScore,
+                       String bestStrategy, String bestTargetLabel,
+                       Map<String, Map<String, Float>> perTargetStrategy,
+                       int embMemoHits, int embMemoMisses, List<String> skippedStrategies,
+                       boolean provisional, boolean confident) {
         this.fullSec = fullSec; this.voicedSec = voicedSec; this.bestScore = bestScore;
         this.bestStrategy = bestStrategy; this.bestTargetLabel = bestTargetLabel;
         this.perTargetStrategy = perTargetStrategy;
+        this.embMemoHits = embMemoHits; this.embMemoMisses = embMemoMisses;
+        this.skippedStrategies = skippedStrategies;
+        this.provisional = provisional; this.confident = confident;
     }
 }
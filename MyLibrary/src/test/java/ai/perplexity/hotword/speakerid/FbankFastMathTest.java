@@ -0,0 +1,55 @@
+package ai.perplexity.hotword.speakerid;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/** cfg.fbankFastMath: fast-math log-mels stay within the fastLog bound of the exact front-end. */
+public class FbankFastMathTest {
+    // fastLog error plus the same again for float rounding of the fused int16 window kernel
+    private static final float TOL = 2f * Fbank.FAST_LOG_MAX_ERR;
+
+    /** Voiced-like test signal: gliding pitch + formant tone, 3 Hz envelope, noise. */
+    static short[] fixture(int seconds, double gain, long seed) {
+        Random r = new Random(seed);
+        short[] pcm = new short[16000 * seconds];
+        for (int i = 0; i < pcm.length; i++) {
+            double t = i / 16000.0;
+            double env = gain * (0.5 + 0.5 * Math.sin(2 * Math.PI * 3 * t));
+            double v = env * (6000 * Math.sin(2 * Math.PI * (140 + 40 * Math.sin(2 * Math.PI * 2 * t)) * t)
+                    + 2500 * Math.sin(2 * Math.PI * 1230 * t)) + gain * 300 * r.nextGaussian();
+            pcm[i] = (short) Math.max(-32768, Math.min(32767, Math.round(v)));
+        }
+        return pcm;
+    }
+
+    @Test
+    public void fastLogWithinBound() {
+        float worst = 0f;
+        for (float x = 1e-10f; x < 1e10f; x *= 1.0007f) {
+            worst = Math.max(worst, Math.abs(Fbank.fastLog(x) - (float) Math.log(x)));
+        }
+        assertTrue("max fastLog error " + worst, worst <= Fbank.FAST_LOG_MAX_ERR);
+    }
+
+    @Test
+    public void logMelsMatchExact() {
+        for (double gain : new double[]{1.0, 0.01, 0.0003}) {
+            short[] pcm = fixture(3, gain, 7);
+            float[][] exact = new Fbank(new Fbank.Config(16000, true, false)).compute(pcm);
+            float[][] fast = new Fbank(new Fbank.Config(16000, true, true)).compute(pcm);
+            assertEquals(exact.length, fast.length);
+            float worst = 0f;
+            for (int t = 0; t < exact.length; t++) {
+                assertEquals(exact[t].length, fast[t].length);
+                for (int m = 0; m < exact[t].length; m++) {
+                    worst = Math.max(worst, Math.abs(exact[t][m] - fast[t][m]));
+                }
+            }
+            assertTrue("gain " + gain + ": max log-mel diff " + worst + " > " + TOL, worst <= TOL);
+        }
+    }
+}
@@ -0,0 +1,263 @@
+#!/usr/bin/env python3
+"""
+Fuse the Java Fbank front-end (Fbank.java) into the speakernet ONNX graph.
+
+The fused model takes raw PCM ("pcm", int16 [1, N] by default, float32 with --float-input)
+and runs framing, STFT, power, mel projection and log inside ORT, so SpeakerEmbedderOrt can
+feed audio directly (it detects the rank-2 waveform input and skips Java-side Fbank).
+
+Front-end (must stay in sync with Fbank.Config defaults):
+  16 kHz, 25 ms hann frames (400 samples, periodic=False), 10 ms hop, snipEdges framing,
+  512-point FFT, 80 mels (20 Hz .. 7600 Hz, 2595*log10 mel scale, Java Math.round bin edges),
+  log(max(e, 1e-10)), no dither, no CMN. 64-mel models get the first 64 bins, like the Java path.
+
+Usage:
+  python3 tools/fuse_fbank_onnx.py speakernet.onnx speakernet_fused_fbank.onnx [--float-input]
+  python3 tools/fuse_fbank_onnx.py speakernet.onnx speakernet_fused_fbank.onnx --check audio.wav
+
+--check compares the ONNX front-end against a NumPy port of Fbank.java (max |diff| of log-mels)
+and the fused embedding against speakernet fed with the NumPy features (cosine).
+Ship the output as the asset "speakernet_fused_fbank.onnx" and set SpeakerIdConfig.onnxFrontEnd.
+
+Requires: onnx>=1.13, onnxruntime, numpy.
+"""
+import argparse
+import sys
+import wave
+
+import numpy as np
+import onnx
+from onnx import TensorProto, helper, numpy_helper, version_converter
+from onnx import compose
+
+SR = 16000
+FRAME_LEN = 400
+FRAME_SHIFT = 160
+N_FFT = 512
+N_MELS = 80
+F_MIN = 20.0
+F_MAX = min(7600.0, SR * 0.5 - 400.0)
+LOG_EPS = 1e-10
+FRONT_OPSET = 17  # STFT
+
+
+# ---------------- NumPy port of Fbank.java (reference) ----------------
+
+def java_round(x):
+    return int(np.floor(x + 0.5))
+
+
+def mel_filters():
+    hz_to_mel = lambda f: 2595.0 * np.log10(1.0 + f / 700.0)
+    mel_to_hz = lambda m: 700.0 * (10.0 ** (m / 2595.0) - 1.0)
+    n_bins = N_FFT // 2 + 1
+    mel_min, mel_max = hz_to_mel(F_MIN), hz_to_mel(F_MAX)
+    step = (mel_max - mel_min) / (N_MELS + 1)
+    edges = []
+    for m in range(N_MELS + 2):
+        b = java_round(mel_to_hz(mel_min + m * step) * (N_FFT / 2.0) / (SR / 2.0))
+        edges.append(max(0, min(N_FFT // 2, b)))
+    out = np.zeros((N_MELS, n_bins), dtype=np.float32)
+    for m in range(1, N_MELS + 1):
+        left, center, right = edges[m - 1], edges[m], edges[m + 1]
+        for k in range(left, center + 1):
+            if center > left:
+                out[m - 1, k] = (k - left) / float(center - left)
+        for k in range(center, right + 1):
+            if right > center:
+                out[m - 1, k] = (right - k) / float(right - center)
+    return out
+
+
+def hann():
+    n = FRAME_LEN
+    i = np.arange(n, dtype=np.float64)
+    return (0.5 - 0.5 * np.cos(2.0 * np.pi * i / max(1, n - 1))).astype(np.float32)
+
+
+def fbank_numpy(pcm_i16):
+    x = pcm_i16.astype(np.float32) / 32768.0
+    if len(x) < FRAME_LEN:
+        return np.zeros((0, N_MELS), dtype=np.float32)
+    T = 1 + (len(x) - FRAME_LEN) // FRAME_SHIFT
+    w = hann()
+    frames = np.stack([x[t * FRAME_SHIFT:t * FRAME_SHIFT + FRAME_LEN] * w for t in range(T)])
+    spec = np.fft.rfft(frames, n=N_FFT, axis=1)
+    power = (spec.real ** 2 + spec.imag ** 2).astype(np.float32)
+    e = power @ mel_filters().T
+    return np.log(np.maximum(e, LOG_EPS)).astype(np.float32)
+
+
+# ---------------- ONNX front-end graph ----------------
+
+def speaker_io(model):
+    """(data_name, data_shape, len_name, len_is_i64) using the same rules as SpeakerEmbedderOrt."""
+    inits = {i.name for i in model.graph.initializer}
+    data = length = None
+    len_i64 = True
+    for vi in model.graph.input:
+        if vi.name in inits:
+            continue
+        tt = vi.type.tensor_type
+        dims = [d.dim_value if d.HasField("dim_value") else -1 for d in tt.shape.dim]
+        lname = vi.name.lower()
+        looks_len = any(s in lname for s in ("length", "seq", "frames", "num"))
+        if looks_len and tt.elem_type in (TensorProto.INT64, TensorProto.INT32) and len(dims) <= 1:
+            length, len_i64 = vi.name, tt.elem_type == TensorProto.INT64
+        elif tt.elem_type == TensorProto.FLOAT and len(dims) == 3:
+            data = (vi.name, dims)
+    if data is None:
+        sys.exit("speaker model has no 3-D float feature input; nothing to fuse")
+    return data[0], data[1], length, len_i64
+
+
+def build_front_end(keep_mels, mel_at_dim1, float_input, len_i64):
+    nodes, inits = [], []
+
+    def const(name, arr):
+        inits.append(numpy_helper.from_array(np.asarray(arr), name))
+        return name
+
+    window = np.zeros(N_FFT, dtype=np.float32)
+    window[:FRAME_LEN] = hann()  # 400-sample hann zero-padded to 512 == Java frame + zero-padded FFT
+    const("fe_window", window)
+    const("fe_step", np.array(FRAME_SHIFT, dtype=np.int64))
+    const("fe_scale", np.array(1.0 / 32768.0, dtype=np.float32))
+    # pad the tail by N_FFT - FRAME_LEN so STFT's frame count equals snipEdges framing on 400 samples
+    const("fe_pads", np.array([0, 0, 0, N_FFT - FRAME_LEN], dtype=np.int64))
+    const("fe_axes2", np.array([2], dtype=np.int64))
+    const("fe_axes_last", np.array([-1], dtype=np.int64))
+    const("fe_melT", mel_filters().T.copy())
+    const("fe_eps", np.array(LOG_EPS, dtype=np.float32))
+
+    if float_input:
+        nodes.append(helper.make_node("Identity", ["pcm"], ["fe_x"]))
+    else:
+        nodes.append(helper.make_node("Cast", ["pcm"], ["fe_xf"], to=TensorProto.FLOAT))
+        nodes.append(helper.make_node("Mul", ["fe_xf", "fe_scale"], ["fe_x"]))
+    nodes += [
+        helper.make_node("Pad", ["fe_x", "fe_pads"], ["fe_xp"], mode="constant"),
+        helper.make_node("Unsqueeze", ["fe_xp", "fe_axes2"], ["fe_sig"]),
+        helper.make_node("STFT", ["fe_sig", "fe_step", "fe_window"], ["fe_spec"], onesided=1),
+        helper.make_node("Mul", ["fe_spec", "fe_spec"], ["fe_sq"]),
+        helper.make_node("ReduceSum", ["fe_sq", "fe_axes_last"], ["fe_pow"], keepdims=0),
+        helper.make_node("MatMul", ["fe_pow", "fe_melT"], ["fe_mel"]),
+        helper.make_node("Max", ["fe_mel", "fe_eps"], ["fe_mel_c"]),
+        helper.make_node("Log", ["fe_mel_c"], ["fe_logmel"]),  # [1, T, 80]
+    ]
+    last = "fe_logmel"
+    if keep_mels < N_MELS:
+        const("fe_s0", np.array([0], dtype=np.int64))
+        const("fe_s1", np.array([keep_mels], dtype=np.int64))
+        nodes.append(helper.make_node("Slice", [last, "fe_s0", "fe_s1", "fe_axes_last"], ["fe_keep"]))
+        last = "fe_keep"
+    t_axis = 1
+    if mel_at_dim1:
+        nodes.append(helper.make_node("Transpose", [last], ["feats"], perm=[0, 2, 1]))
+        t_axis = 2
+    else:
+        nodes.append(helper.make_node("Identity", [last], ["feats"]))
+
+    const("fe_t_idx", np.array([t_axis], dtype=np.int64))
+    nodes += [
+        helper.make_node("Shape", ["feats"], ["fe_shape"]),
+        helper.make_node("Gather", ["fe_shape", "fe_t_idx"], ["fe_len64"]),
+    ]
+    if len_i64:
+        nodes.append(helper.make_node("Identity", ["fe_len64"], ["feat_len"]))
+    else:
+        nodes.append(helper.make_node("Cast", ["fe_len64"], ["feat_len"], to=TensorProto.INT32))
+
+    in_type = TensorProto.FLOAT if float_input else TensorProto.INT16
+    graph = helper.make_graph(
+        nodes, "fbank_front_end",
+        [helper.make_tensor_value_info("pcm", in_type, [1, "N"])],
+        [helper.make_tensor_value_info("feats", TensorProto.FLOAT, None),
+         helper.make_tensor_value_info("feat_len", TensorProto.INT64 if len_i64 else TensorProto.INT32, [1])],
+        inits)
+    return graph
+
+
+def fuse(spk_path, out_path, float_input):
+    spk = onnx.load(spk_path)
+    data_name, shape, len_name, len_i64 = speaker_io(spk)
+    keep = 64 if (shape[1] == 64 or shape[2] == 64) else N_MELS
+    mel_at_dim1 = shape[1] == 64 or (shape[1] == -1 and "time" not in data_name.lower())
+
+    spk_opset = max(o.version for o in spk.opset_import if o.domain in ("", "ai.onnx"))
+    if spk_opset < FRONT_OPSET:
+        spk = version_converter.convert_version(spk, FRONT_OPSET)
+    front = helper.make_model(build_front_end(keep, mel_at_dim1, float_input, len_i64),
+                              opset_imports=[helper.make_opsetid("", max(FRONT_OPSET, spk_opset))])
+    front.ir_version = spk.ir_version
+
+    io_map = [("feats", data_name)]
+    if len_name is not None:
+        io_map.append(("feat_len", len_name))
+    fused = compose.merge_models(front, spk, io_map=io_map)
+    # feat_len is only an internal edge
+    keep_outputs = [o for o in fused.graph.output if o.name not in ("feats", "feat_len")]
+    del fused.graph.output[:]
+    fused.graph.output.extend(keep_outputs)
+    onnx.checker.check_model(fused)
+    onnx.save(fused, out_path)
+    print(f"fused: {out_path}  data={data_name} shape={shape} mels={keep} "
+          f"layout={'[B,D,T]' if mel_at_dim1 else '[B,T,D]'} length={len_name}")
+    return front, data_name, len_name, len_i64, keep, mel_at_dim1
+
+
+def read_wav(path):
+    with wave.open(path, "rb") as w:
+        if w.getnchannels() != 1 or w.getsampwidth() != 2 or w.getframerate() != SR:
+            sys.exit("check audio must be 16 kHz mono PCM16")
+        return np.frombuffer(w.readframes(w.getnframes()), dtype="<i2").copy()
+
+
+def check(spk_path, fused_path, front, data_name, len_name, len_i64, keep, mel_at_dim1, pcm, float_input):
+    import onnxruntime as ort
+
+    x = (pcm.astype(np.float32) / 32768.0) if float_input else pcm
+    x = x.reshape(1, -1)
+
+    ref = fbank_numpy(pcm)[:, :keep]  # [T, keep]
+    fe = ort.InferenceSession(front.SerializeToString(), providers=["CPUExecutionProvider"])
+    feats = fe.run(["feats"], {"pcm": x})[0][0]
+    got = feats.T if mel_at_dim1 else feats
+    if got.shape != ref.shape:
+        sys.exit(f"front-end frame mismatch: onnx {got.shape} vs numpy {ref.shape}")
+    print(f"front-end parity: T={ref.shape[0]} max|diff|={np.abs(got - ref).max():.3e}")
+
+    spk = ort.InferenceSession(spk_path, providers=["CPUExecutionProvider"])
+    feed = {data_name: (ref.T if mel_at_dim1 else ref)[None].astype(np.float32)}
+    if len_name is not None:
+        feed[len_name] = np.array([ref.shape[0]], dtype=np.int64 if len_i64 else np.int32)
+    fused = ort.InferenceSession(fused_path, providers=["CPUExecutionProvider"])
+
+    def first_vec(outs):
+        for o in outs:
+            v = np.asarray(o, dtype=np.float32).reshape(-1)
+            if 64 <= v.size <= 1024:
+                return v / (np.linalg.norm(v) + 1e-10)
+        sys.exit("no embedding-like output")
+
+    a = first_vec(spk.run(None, feed))
+    b = first_vec(fused.run(None, {"pcm": x}))
+    print(f"embedding parity: cos={float(a @ b):.6f}")
+
+
+def main():
+    ap = argparse.ArgumentParser(description=__doc__, formatter_class=argparse.RawDescriptionHelpFormatter)
+    ap.add_argument("speakernet")
+    ap.add_argument("out")
+    ap.add_argument("--float-input", action="store_true", help="pcm input as float32 in [-1,1] instead of int16")
+    ap.add_argument("--check", metavar="WAV", help="run parity checks on a 16 kHz mono PCM16 wav")
+    a = ap.parse_args()
+
+    front, data_name, len_name, len_i64, keep, mel_at_dim1 = fuse(a.speakernet, a.out, a.float_input)
+    if a.check:
+        check(a.speakernet, a.out, front, data_name, len_name, len_i64, keep, mel_at_dim1,
+              read_wav(a.check), a.float_input)
+
+
+if __name__ == "__main__":
+    main()